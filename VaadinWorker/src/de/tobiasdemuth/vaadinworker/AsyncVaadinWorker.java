@@ -0,0 +1,194 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A <code>VaadinWorker</code> for non-blocking work. Instead of blocking in
+ * <code>runInBackground()</code>, it starts its work in
+ * <code>runAsync()</code> - e.g. by calling an asynchronous HTTP-client - and
+ * returns a <code>CompletionStage</code> of the result. The pool-thread is
+ * released right away, so no thread is held while the I/O is in flight.
+ * </p>
+ *
+ * <p>
+ * Once the stage completes, <code>updateUI()</code> is called with the lock
+ * of the <code>Application</code> held. The thread completing the stage is
+ * normally an I/O-thread of the client, which must not wait for the lock, so
+ * <code>updateUI()</code> is posted to the <code>UIActionQueue</code> and
+ * executed by the next request - e.g. the next poll of the
+ * <code>BackgroundExecutor</code>. <code>updateUI()</code> is called even if
+ * the stage failed or has been canceled; the outcome is available from
+ * <code>getResult()</code> and <code>getFailure()</code>.
+ * </p>
+ *
+ * <p>
+ * Canceling the worker cancels the stage, if it is a
+ * <code>CompletableFuture</code>. <code>getCompletion()</code> completes
+ * after <code>updateUI()</code> has been called and allows executors to
+ * track the end of the work.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class AsyncVaadinWorker<R> extends VaadinWorker {
+
+	/**
+	 * Forwards cancel-requests to the stage.
+	 */
+	private final class StageCanceler implements CancelListener {
+
+		public void workCanceled(VaadinWorker worker, boolean mayInterruptIfRunning) {
+			CompletionStage<R> current = stage;
+			if(current instanceof CompletableFuture) {
+				((CompletableFuture<R>) current).cancel(mayInterruptIfRunning);
+			}
+		}
+
+	}
+
+	private final CompletableFuture<R> completion = new CompletableFuture<R>();
+
+	private volatile CompletionStage<R> stage;
+
+	private volatile R result;
+
+	private volatile Throwable failure;
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application)
+	 */
+	public AsyncVaadinWorker(Application app) {
+		super(app);
+		addListener(new StageCanceler());
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, ProgressListener...)
+	 */
+	public AsyncVaadinWorker(Application app, ProgressListener... listeners) {
+		super(app, listeners);
+		addListener(new StageCanceler());
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, Collection)
+	 */
+	public AsyncVaadinWorker(Application app,
+			Collection<ProgressListener> listeners) {
+		super(app, listeners);
+		addListener(new StageCanceler());
+	}
+
+	/**
+	 * Starts the work and returns the stage of its result. This method is
+	 * called in a pool-thread and must not block.
+	 */
+	protected abstract CompletionStage<R> runAsync();
+
+	/**
+	 * Calls <code>runAsync()</code> and returns right away.
+	 * <code>updateUI()</code> is called once the returned stage completes.
+	 */
+	@Override
+	public final void runInBackground() {
+		CompletionStage<R> started;
+		try {
+			started = runAsync();
+			if(started == null) {
+				throw new NullPointerException("runAsync() returned null!");
+			}
+		}
+		catch(RuntimeException e) {
+			CompletableFuture<R> failed = new CompletableFuture<R>();
+			failed.completeExceptionally(e);
+			started = failed;
+		}
+		stage = started;
+
+		if(isCanceled()) {
+			// Canceled while runAsync() was starting the work
+			new StageCanceler().workCanceled(this, true);
+		}
+
+		started.whenComplete(new BiConsumer<R, Throwable>() {
+
+			public void accept(R value, Throwable error) {
+				result = value;
+				failure = unwrap(error);
+
+				UIActionQueue.get(getApplication()).post(new Runnable() {
+
+					public void run() {
+						complete();
+					}
+
+				});
+			}
+
+		});
+	}
+
+	private void complete() {
+		try {
+			finish();
+		}
+		catch(RuntimeException e) {
+			completion.completeExceptionally(e);
+			return;
+		}
+
+		if(failure != null) {
+			completion.completeExceptionally(failure);
+		}
+		else {
+			completion.complete(result);
+		}
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		if((error instanceof CompletionException || error instanceof ExecutionException)
+				&& error.getCause() != null) {
+			return error.getCause();
+		}
+		return error;
+	}
+
+	@Override
+	boolean completesAsynchronously() {
+		return true;
+	}
+
+	/**
+	 * @return the result of the stage or null, if it has not completed
+	 * successfully (yet).
+	 */
+	protected final R getResult() {
+		return result;
+	}
+
+	/**
+	 * @return the exception the stage completed with or null, if it has not
+	 * failed (yet). A canceled stage fails with a
+	 * <code>CancellationException</code>.
+	 */
+	protected final Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Returns a stage completing after <code>updateUI()</code> has been
+	 * called, with the result or the failure of the work.
+	 */
+	public final CompletionStage<R> getCompletion() {
+		return completion;
+	}
+
+}
@@ -0,0 +1,111 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A <code>VaadinWorker</code> streaming partial results to the UI, just like
+ * the <code>publish()</code> / <code>process()</code>-pair of Swing's
+ * <code>SwingWorker</code>. The background-thread hands chunks to
+ * <code>publish(V...)</code>, which buffers them without any locking. The
+ * buffered chunks are handed to <code>process(List)</code> in batches, with
+ * the lock of the <code>Application</code> held.
+ * </p>
+ *
+ * <p>
+ * The batches are delivered through the <code>UIActionQueue</code>, so
+ * <code>process()</code> is called at most once per request - e.g. per poll
+ * of the <code>BackgroundExecutor</code> - no matter how many chunks are
+ * published in between. Chunks still buffered when the work is done are
+ * processed right before <code>updateUI()</code>.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class ChunkedVaadinWorker<V> extends VaadinWorker {
+
+	private final Queue<V> chunks = new ConcurrentLinkedQueue<V>();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Runnable delivery = new Runnable() {
+
+		public void run() {
+			scheduled.set(false);
+			processChunks();
+		}
+
+	};
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application)
+	 */
+	public ChunkedVaadinWorker(Application app) {
+		super(app);
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, ProgressListener...)
+	 */
+	public ChunkedVaadinWorker(Application app, ProgressListener... listeners) {
+		super(app, listeners);
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, Collection)
+	 */
+	public ChunkedVaadinWorker(Application app,
+			Collection<ProgressListener> listeners) {
+		super(app, listeners);
+	}
+
+	/**
+	 * Hands the given chunks to <code>process(List)</code>. This method never
+	 * blocks and is meant to be called from <code>runInBackground()</code>.
+	 *
+	 * @throws NullPointerException if one of the chunks is null.
+	 */
+	@SafeVarargs
+	protected final void publish(V... chunks) {
+		for(V chunk : chunks) {
+			this.chunks.add(chunk);
+		}
+
+		if(scheduled.compareAndSet(false, true)) {
+			postToUI(delivery);
+		}
+	}
+
+	/**
+	 * Receives the chunks published since the last call, in the order they
+	 * were published. Gets called with the lock of the
+	 * <code>Application</code> held, so it is legal to update the UI from
+	 * here. Must return quickly.
+	 */
+	protected abstract void process(List<V> chunks);
+
+	private void processChunks() {
+		List<V> batch = new ArrayList<V>();
+		V chunk;
+		while((chunk = chunks.poll()) != null) {
+			batch.add(chunk);
+		}
+
+		if(!batch.isEmpty()) {
+			process(batch);
+		}
+	}
+
+	@Override
+	void beforeUpdateUI() {
+		processChunks();
+	}
+
+}
@@ -0,0 +1,217 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import com.vaadin.Application;
+import com.vaadin.terminal.DownloadStream;
+import com.vaadin.terminal.StreamResource;
+import com.vaadin.terminal.gwt.server.WebApplicationContext;
+
+/**
+ * <p>
+ * A <code>StreamResource</code> serving a temporary file, e.g. one written by
+ * a <code>FileVaadinWorker</code>. Every download reads the file through its
+ * own <code>FileChannel</code>, so the file is streamed to the client and
+ * never loaded into memory as a whole.
+ * </p>
+ *
+ * <p>
+ * The file is deleted by <code>dispose()</code> or once the
+ * <code>HttpSession</code> ends - whatever happens first. Without an
+ * <code>HttpSession</code>, e.g. in a portlet, the file is deleted once the
+ * <code>UIActionQueue</code> of the <code>Application</code> is closed
+ * instead, i.e. when the <code>Application</code> is closed. The resource
+ * is registered in its <code>Application</code>, so it stays reachable -
+ * and the file stays - until then.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class FileDownloadResource extends StreamResource {
+
+	private static final long serialVersionUID = 3920417766351052981L;
+
+	/**
+	 * Opens a new channel for every download.
+	 */
+	private static final class FileSource implements StreamSource {
+
+		private static final long serialVersionUID = -5513845236716398034L;
+
+		private final String path;
+
+		private FileSource(String path) {
+			this.path = path;
+		}
+
+		public InputStream getStream() {
+			try {
+				return Channels.newInputStream(FileChannel.open(Paths.get(path),
+						StandardOpenOption.READ));
+			} catch (IOException e) {
+				// The file has been deleted already
+				return null;
+			}
+		}
+
+	}
+
+	/**
+	 * Deletes the file once the <code>HttpSession</code> ends or the
+	 * <code>UIActionQueue</code> is closed.
+	 */
+	private static final class FileDeleter implements Runnable,
+			HttpSessionBindingListener, UIActionQueue.CloseListener, Serializable {
+
+		private static final long serialVersionUID = 1284766036911503874L;
+
+		private final String path;
+
+		private FileDeleter(String path) {
+			this.path = path;
+		}
+
+		public void run() {
+			try {
+				Files.deleteIfExists(Paths.get(path));
+			} catch (IOException e) {
+				// Nothing we can do about it
+			}
+		}
+
+		public void valueBound(HttpSessionBindingEvent event) {
+			// Nothing to do
+		}
+
+		public void valueUnbound(HttpSessionBindingEvent event) {
+			run();
+		}
+
+		public void queueClosed() {
+			run();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof FileDeleter && ((FileDeleter) obj).path.equals(path);
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+
+	}
+
+	private final String path;
+
+	/**
+	 * @param file the file to serve, which is deleted when the resource is
+	 * disposed.
+	 * @param fileName the name of the file as shown to the client.
+	 * @param mimeType the MIME-type of the file.
+	 * @param app the <code>Application</code> the resource belongs to.
+	 */
+	public FileDownloadResource(Path file, String fileName, String mimeType,
+			Application app) {
+		super(new FileSource(file.toString()), fileName, app);
+		setMIMEType(mimeType);
+
+		this.path = file.toString();
+		deleteWithSession(file, app);
+	}
+
+	/**
+	 * Deletes the given file once the <code>HttpSession</code> of the
+	 * <code>Application</code> ends, if it has not been deleted before. 
+	 * Without an <code>HttpSession</code>, the file is deleted once the
+	 * <code>UIActionQueue</code> of the <code>Application</code> is closed.
+	 * May be called by any thread.
+	 *
+	 * @throws IllegalStateException if the session has ended or the queue
+	 * has been closed already.
+	 */
+	static void deleteWithSession(Path file, Application app)
+			throws IllegalStateException {
+		HttpSession session = getHttpSession(app);
+		if(session != null) {
+			String key = getSessionKey(file.toString());
+			if(session.getAttribute(key) == null) {
+				session.setAttribute(key, new FileDeleter(file.toString()));
+			}
+		}
+		else {
+			UIActionQueue queue = UIActionQueue.get(app);
+			if(queue.isClosed()) {
+				throw new IllegalStateException("The Application has been closed!");
+			}
+			queue.addListener(new FileDeleter(file.toString()));
+		}
+	}
+
+	/**
+	 * Deletes the given file right away and forgets about it.
+	 */
+	static void delete(Path file, Application app) {
+		HttpSession session = getHttpSession(app);
+		if(session != null) {
+			try {
+				session.removeAttribute(getSessionKey(file.toString()));
+			} catch (IllegalStateException e) {
+				// The session has ended and deleted the file already
+			}
+		}
+		else {
+			UIActionQueue.get(app).removeListener(new FileDeleter(file.toString()));
+		}
+		new FileDeleter(file.toString()).run();
+	}
+
+	private static String getSessionKey(String path) {
+		return FileDownloadResource.class.getName() + "." + path;
+	}
+
+	private static HttpSession getHttpSession(Application app) {
+		if(app.getContext() instanceof WebApplicationContext) {
+			return ((WebApplicationContext) app.getContext()).getHttpSession();
+		}
+		return null;
+	}
+
+	@Override
+	public DownloadStream getStream() {
+		DownloadStream stream = super.getStream();
+		if(stream != null) {
+			try {
+				stream.setParameter("Content-Length",
+						String.valueOf(Files.size(Paths.get(path))));
+			} catch (IOException e) {
+				// Served without a length then
+			}
+		}
+		return stream;
+	}
+
+	/**
+	 * Removes the resource from its <code>Application</code> and deletes the
+	 * file. Must be called with the lock of the <code>Application</code> held.
+	 */
+	public void dispose() {
+		Application app = getApplication();
+		app.removeResource(this);
+		delete(Paths.get(path), app);
+	}
+
+}
@@ -0,0 +1,124 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A <code>VaadinWorker</code> producing a file, e.g. a CSV-export or a
+ * PDF-report. <code>writeFile()</code> writes to a temporary file through a
+ * <code>FileChannel</code>; wrap it by <code>Channels.newWriter()</code> for
+ * writing text. Nothing has to be held in memory until the work is done.
+ * </p>
+ *
+ * <p>
+ * Once the file has been written, <code>getDownload()</code> returns a
+ * <code>FileDownloadResource</code> serving it, which is available in
+ * <code>updateUI()</code> - e.g. for opening it in the main window. The file
+ * is deleted if the worker fails or has been canceled, and at the latest
+ * when the <code>HttpSession</code> ends - or, without an
+ * <code>HttpSession</code>, when the <code>Application</code> is closed.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class FileVaadinWorker extends VaadinWorker {
+
+	private final String fileName;
+
+	private final String mimeType;
+
+	private volatile Path file;
+
+	private FileDownloadResource download;
+
+	/**
+	 * @param fileName the name of the file as shown to the client.
+	 * @param mimeType the MIME-type of the file.
+	 * @see VaadinWorker#VaadinWorker(Application)
+	 */
+	public FileVaadinWorker(Application app, String fileName, String mimeType) {
+		super(app);
+		this.fileName = fileName;
+		this.mimeType = mimeType;
+	}
+
+	/**
+	 * @param fileName the name of the file as shown to the client.
+	 * @param mimeType the MIME-type of the file.
+	 * @see VaadinWorker#VaadinWorker(Application, ProgressListener...)
+	 */
+	public FileVaadinWorker(Application app, String fileName, String mimeType,
+			ProgressListener... listeners) {
+		super(app, listeners);
+		this.fileName = fileName;
+		this.mimeType = mimeType;
+	}
+
+	/**
+	 * Writes the file. Do your long-running tasks here instead of in
+	 * <code>runInBackground()</code>.
+	 *
+	 * @param channel the channel to the temporary file, which is closed
+	 * afterwards.
+	 */
+	protected abstract void writeFile(FileChannel channel) throws IOException;
+
+	/**
+	 * Creates the temporary file and calls <code>writeFile()</code>.
+	 *
+	 * @throws UncheckedIOException if the file could not be written.
+	 */
+	@Override
+	public final void runInBackground() {
+		Path path = null;
+		boolean written = false;
+		try {
+			int dot = fileName.lastIndexOf('.');
+			path = Files.createTempFile("vaadinworker-",
+					(dot >= 0) ? fileName.substring(dot) : null);
+			// Deleted with the session even if updateUI() is never called
+			FileDownloadResource.deleteWithSession(path, getApplication());
+			FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				writeFile(channel);
+			} finally {
+				channel.close();
+			}
+			written = !isCanceled();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write " + fileName + "!", e);
+		} finally {
+			if(written) {
+				file = path;
+			} else if(path != null) {
+				FileDownloadResource.delete(path, getApplication());
+			}
+		}
+	}
+
+	@Override
+	void beforeUpdateUI() {
+		if(file != null) {
+			download = new FileDownloadResource(file, fileName, mimeType,
+					getApplication());
+		}
+	}
+
+	/**
+	 * Returns the resource serving the written file, or null if the worker
+	 * failed or has been canceled. Is available from <code>updateUI()</code>
+	 * on. Call <code>dispose()</code> on it once the file is no longer needed.
+	 */
+	public FileDownloadResource getDownload() {
+		return download;
+	}
+
+}
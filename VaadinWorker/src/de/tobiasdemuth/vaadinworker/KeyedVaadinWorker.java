@@ -0,0 +1,472 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.Application;
+
+import de.tobiasdemuth.vaadinworker.progressdispatcher.NonBlockingProgressDispatcher;
+
+/**
+ * <p>
+ * A <code>VaadinWorker</code> whose result depends on a key only, e.g. the
+ * parameters of a query. The result computed by <code>compute()</code> is
+ * put into a <code>ResultCache</code>, which is shared by all sessions. If
+ * the cache holds a result for the worker's key already, the
+ * <code>BackgroundExecutor</code> does not hand the worker to the
+ * <code>ExecutorService</code> at all, but calls <code>initUI()</code> and
+ * <code>updateUI()</code> right away - no pool-thread is taken.
+ * </p>
+ *
+ * <p>
+ * Identical workers submitted while the result is still being computed are
+ * not run either: The first one submitted leads a flight, the following ones
+ * - of any session - join it as followers. A follower mirrors the progress
+ * of the leader and gets the leader's result once it is computed. The 
+ * mirrored progress reaches the follower's <code>ProgressListener</code>s by
+ * the <code>UIActionQueue</code> of its own <code>Application</code>, so the
+ * leader never waits for the lock of another session. Its own
+ * <code>updateUI()</code> is then posted to the <code>UIActionQueue</code> of
+ * its own <code>Application</code>. If the leader fails, the followers fail
+ * with the leader's exception. If the leader is canceled or times out, it
+ * leaves the flight and the first follower still waiting takes over: It is
+ * handed to the <code>ExecutorService</code> again and computes the result
+ * for the remaining followers. So a cancel-request of one session never
+ * aborts the work of the others. A canceled follower leaves the flight and
+ * is finished right away.
+ * </p>
+ *
+ * <p>
+ * Results are cached per worker-class and key. Results of canceled workers
+ * and null-results are not cached. The very same result is handed to all
+ * workers with the same key - cached or following - of all sessions, so it
+ * must be immutable. Copy it in <code>updateUI()</code> before modifying it.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class KeyedVaadinWorker<K, R> extends VaadinWorker {
+
+	/**
+	 * The workers waiting for the result of a leader.
+	 */
+	private static final class Flight {
+
+		private volatile KeyedVaadinWorker<?, ?> leader;
+
+		private final List<KeyedVaadinWorker<?, ?>> followers =
+				new CopyOnWriteArrayList<KeyedVaadinWorker<?, ?>>();
+
+		private boolean landed = false;
+
+		private Flight(KeyedVaadinWorker<?, ?> leader) {
+			this.leader = leader;
+		}
+
+		private synchronized boolean attach(KeyedVaadinWorker<?, ?> follower) {
+			if(landed) {
+				return false;
+			}
+			followers.add(follower);
+			return true;
+		}
+
+		private void detach(KeyedVaadinWorker<?, ?> follower) {
+			followers.remove(follower);
+		}
+
+		/**
+		 * Makes the first follower the leader.
+		 *
+		 * @return the new leader, or null if there is no follower left, which
+		 * lands the flight.
+		 */
+		private synchronized KeyedVaadinWorker<?, ?> promote() {
+			if(landed) {
+				return null;
+			}
+			if(followers.isEmpty()) {
+				landed = true;
+				return null;
+			}
+			leader = followers.remove(0);
+			return leader;
+		}
+
+		/**
+		 * @return the followers to hand the result to, empty if the flight
+		 * has landed already.
+		 */
+		private synchronized List<KeyedVaadinWorker<?, ?>> land() {
+			if(landed) {
+				return Collections.emptyList();
+			}
+			landed = true;
+			return followers;
+		}
+
+	}
+
+	/**
+	 * Lets a canceled follower leave its flight.
+	 */
+	private final class FlightCanceler implements CancelListener {
+
+		public void workCanceled(VaadinWorker worker, boolean mayInterruptIfRunning) {
+			Flight current = followed;
+			if(current != null) {
+				current.detach(KeyedVaadinWorker.this);
+				follow(null);
+			}
+		}
+
+	}
+
+	// Shared by all sessions, just as the caches
+	private static final ConcurrentMap<Object, Flight> FLIGHTS =
+			new ConcurrentHashMap<Object, Flight>();
+
+	private final ResultCache cache;
+
+	private volatile R result;
+
+	private volatile boolean cacheHit = false;
+
+	// The flight this worker leads or follows
+	private volatile Flight led;
+
+	private volatile Flight followed;
+
+	// Set once this follower has been finished or has taken over its flight
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	private volatile Runnable resubmission;
+
+	private final CompletableFuture<VaadinWorker> followerCompletion =
+			new CompletableFuture<VaadinWorker>();
+
+	// Hands the leader's progress to the listeners of this follower
+	private final ProgressDispatcher mirroredProgress =
+			new NonBlockingProgressDispatcher();
+
+	/**
+	 * @param cache the cache to look up and put the result.
+	 * @throws NullPointerException if <code>cache</code> is null.
+	 * @see VaadinWorker#VaadinWorker(Application)
+	 */
+	public KeyedVaadinWorker(Application app, ResultCache cache) {
+		super(app);
+		if(cache == null) {
+			throw new NullPointerException("Cache is not allowed to be null!");
+		}
+		this.cache = cache;
+		addListener(new FlightCanceler());
+	}
+
+	/**
+	 * @param cache the cache to look up and put the result.
+	 * @throws NullPointerException if <code>cache</code> is null.
+	 * @see VaadinWorker#VaadinWorker(Application, ProgressListener...)
+	 */
+	public KeyedVaadinWorker(Application app, ResultCache cache,
+			ProgressListener... listeners) {
+		super(app, listeners);
+		if(cache == null) {
+			throw new NullPointerException("Cache is not allowed to be null!");
+		}
+		this.cache = cache;
+		addListener(new FlightCanceler());
+	}
+
+	/**
+	 * Returns the key the result depends on. Must implement
+	 * <code>equals()</code> and <code>hashCode()</code> and must not change.
+	 */
+	protected abstract K getKey();
+
+	/**
+	 * Computes the result for the key. Do your long-running tasks here
+	 * instead of in <code>runInBackground()</code>. The result is shared by
+	 * all sessions and must not be modified afterwards.
+	 */
+	protected abstract R compute();
+
+	/**
+	 * Returns the weight of the result in the cache, e.g. its number of rows.
+	 * Every result weighs 1 by default.
+	 */
+	protected long weigh(R result) {
+		return 1;
+	}
+
+	/**
+	 * Calls <code>compute()</code>, caches the result and hands it to the
+	 * followers. If this worker has been canceled, the flight is handed over
+	 * to the first follower instead.
+	 */
+	@Override
+	public final void runInBackground() {
+		R computed = null;
+		Throwable failure = null;
+		try {
+			computed = compute();
+			result = computed;
+			if(computed != null && !isCanceled()) {
+				cache.put(getCacheKey(), computed, weigh(computed));
+			}
+		} catch(RuntimeException e) {
+			failure = e;
+			throw e;
+		} catch(Error e) {
+			failure = e;
+			throw e;
+		} finally {
+			if(isCanceled()) {
+				handOver();
+			} else {
+				land(computed, failure);
+			}
+		}
+	}
+
+	/**
+	 * Looks up the result in the cache. If it is cached, the worker is
+	 * finished right away by calling <code>initUI()</code> and
+	 * <code>updateUI()</code> on the current thread. Called by the
+	 * <code>BackgroundExecutor</code> before handing the worker to the
+	 * <code>ExecutorService</code>.
+	 *
+	 * @return true if the result has been cached.
+	 */
+	public final boolean runFromCache() {
+		@SuppressWarnings("unchecked")
+		R cached = (R) cache.get(getCacheKey());
+		if(cached == null) {
+			return false;
+		}
+
+		result = cached;
+		cacheHit = true;
+		initUIOnce();
+		finish();
+		return true;
+	}
+
+	/**
+	 * Joins the flight of an identical worker, if there is one in flight.
+	 * Otherwise this worker becomes the leader of a new flight and has to be
+	 * run. Called by the <code>BackgroundExecutor</code> before handing the
+	 * worker to the <code>ExecutorService</code>; <code>initUI()</code> of a
+	 * follower is called on the current thread.
+	 *
+	 * @param resubmission hands this worker to the
+	 * <code>ExecutorService</code> if it has to take over the flight from a
+	 * canceled leader. It is run on the thread of the leader or of the one
+	 * canceling it, which might belong to another <code>Application</code>,
+	 * so it must never run the worker itself.
+	 * @return null if this worker leads the flight, or a stage completing
+	 * after <code>updateUI()</code> of the follower has been called, or
+	 * exceptionally with the exception of the leader. It never completes if
+	 * the follower takes over the flight.
+	 */
+	public final CompletionStage<VaadinWorker> joinFlight(Runnable resubmission) {
+		Object key = getCacheKey();
+		Flight own = new Flight(this);
+		this.resubmission = resubmission;
+		while(true) {
+			Flight current = FLIGHTS.putIfAbsent(key, own);
+			if(current == null) {
+				led = own;
+				return null;
+			}
+			if(current.attach(this)) {
+				followed = current;
+				initUIOnce();
+				ProgressSnapshot snapshot = current.leader.getProgressSnapshot();
+				if(snapshot != null) {
+					updateProgress(snapshot.getProgress(), snapshot.getState());
+				}
+				return followerCompletion;
+			}
+			// Landed in the meantime
+			FLIGHTS.remove(key, current);
+		}
+	}
+
+	/**
+	 * Leaves the flight this worker leads or follows. A leader hands the
+	 * flight over to its first follower then. Called by the
+	 * <code>BackgroundExecutor</code> once the worker is done, including the
+	 * case that it has never been run.
+	 */
+	public final void leaveFlight() {
+		Flight current = followed;
+		if(current != null && released.compareAndSet(false, true)) {
+			current.detach(this);
+		}
+		handOver();
+	}
+
+	/**
+	 * Lets the first follower still waiting take over the flight, or lands it
+	 * if there is none.
+	 */
+	private void handOver() {
+		Flight flight = led;
+		if(flight == null) {
+			return;
+		}
+		led = null;
+
+		while(true) {
+			KeyedVaadinWorker<?, ?> successor = flight.promote();
+			if(successor == null) {
+				FLIGHTS.remove(getCacheKey(), flight);
+				return;
+			}
+			if(successor.takeOver(flight)) {
+				return;
+			}
+			// Canceled in the meantime, try the next one
+		}
+	}
+
+	/**
+	 * Makes this follower the leader of the flight and hands it to the
+	 * <code>ExecutorService</code> again.
+	 *
+	 * @return false if this follower has been finished already.
+	 */
+	private boolean takeOver(Flight flight) {
+		if(!released.compareAndSet(false, true)) {
+			return false;
+		}
+		followed = null;
+		led = flight;
+		resubmission.run();
+		return true;
+	}
+
+	private void land(R computed, Throwable failure) {
+		Flight flight = led;
+		if(flight == null) {
+			return;
+		}
+		led = null;
+		FLIGHTS.remove(getCacheKey(), flight);
+		for(KeyedVaadinWorker<?, ?> follower : flight.land()) {
+			if(failure != null) {
+				follower.failFollower(failure);
+			} else {
+				follower.follow(computed);
+			}
+		}
+	}
+
+	/**
+	 * Lets this follower fail with the exception of its leader.
+	 */
+	private void failFollower(Throwable failure) {
+		if(!released.compareAndSet(false, true)) {
+			return;
+		}
+		fail(failure);
+		followerCompletion.completeExceptionally(failure);
+	}
+
+	/**
+	 * Finishes this follower with the given result of its leader, or without
+	 * a result if it has been canceled.
+	 */
+	private void follow(Object computed) {
+		if(!released.compareAndSet(false, true)) {
+			return;
+		}
+
+		// The leader has the same class and key
+		@SuppressWarnings("unchecked")
+		R leaderResult = (R) computed;
+		result = leaderResult;
+
+		UIActionQueue.get(getApplication()).post(new Runnable() {
+
+			public void run() {
+				try {
+					finish();
+				}
+				catch(RuntimeException e) {
+					followerCompletion.completeExceptionally(e);
+					return;
+				}
+				followerCompletion.complete(KeyedVaadinWorker.this);
+			}
+
+		});
+	}
+
+	@Override
+	void progressUpdated(int progress, String state) {
+		Flight flight = led;
+		if(flight != null) {
+			for(KeyedVaadinWorker<?, ?> follower : flight.followers) {
+				follower.mirrorProgress(progress, state);
+			}
+		}
+	}
+
+	/**
+	 * Takes over the progress of the leader. Called by the leader's thread,
+	 * so the listeners are informed by the next request of this follower's
+	 * <code>Application</code> instead of waiting for its lock.
+	 */
+	private void mirrorProgress(int progress, String state) {
+		publishProgress(progress, state);
+		mirroredProgress.dispatch(this, progress, state);
+	}
+
+	@Override
+	void beforeUpdateUI() {
+		mirroredProgress.flush(this);
+	}
+
+	private Object getCacheKey() {
+		return Arrays.asList(getClass(), getKey());
+	}
+
+	/**
+	 * @return the result, or null if it has not been computed yet.
+	 */
+	public R getResult() {
+		return result;
+	}
+
+	/**
+	 * @return true if the result has been taken from the cache.
+	 */
+	public boolean isCacheHit() {
+		return cacheHit;
+	}
+
+	/**
+	 * @return true if this worker has joined the flight of an identical
+	 * worker instead of being run.
+	 */
+	public boolean isFollower() {
+		return followed != null;
+	}
+
+	/**
+	 * @return the cache the result is looked up in.
+	 */
+	public ResultCache getCache() {
+		return cache;
+	}
+
+}
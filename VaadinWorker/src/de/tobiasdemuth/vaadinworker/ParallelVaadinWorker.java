@@ -0,0 +1,194 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A <code>VaadinWorker</code> for CPU-bound work that can be split into
+ * <code>Subtask</code>s, which are forked into a <code>ForkJoinPool</code>
+ * and therefore may use every core instead of a single pool-thread.
+ * </p>
+ *
+ * <p>
+ * Call <code>setTotalWork(long)</code> and <code>invoke(Subtask)</code>
+ * from <code>runInBackground()</code>. Every <code>Subtask</code> reports
+ * the work it has done by calling <code>workDone(long)</code>, and the sum of
+ * all reports is communicated as one stream of <code>updateProgress()</code>
+ * calls - from whichever thread happens to report, but never from two at
+ * once. Do not call <code>updateProgress()</code> directly while subtasks
+ * are running.
+ * </p>
+ *
+ * <p>
+ * If the worker runs in a <code>ForkJoinPool</code> itself - which is the
+ * case if the <code>ExecutorServiceContextListener</code> is configured with
+ * the <code>forkJoin</code>-executor-type - the subtasks are forked into
+ * that pool. Otherwise the common pool is used.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class ParallelVaadinWorker extends VaadinWorker {
+
+	/**
+	 * A part of the work of a <code>ParallelVaadinWorker</code>. Subtasks may
+	 * fork further subtasks and join them as any <code>RecursiveTask</code>.
+	 * A subtask that is started after its worker has been canceled does not
+	 * compute anything, but completes with a
+	 * <code>CancellationException</code>.
+	 */
+	protected abstract class Subtask<V> extends RecursiveTask<V> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected final V compute() {
+			if(isCanceled()) {
+				throw new CancellationException("The worker has been canceled!");
+			}
+			return computeInParallel();
+		}
+
+		/**
+		 * Does the actual work of this subtask. Long-running subtasks should
+		 * check <code>isCanceled()</code> on a regular basis.
+		 */
+		protected abstract V computeInParallel();
+
+		/**
+		 * Returns true if cancellation of the enclosing worker has been
+		 * requested.
+		 */
+		protected final boolean isCanceled() {
+			return ParallelVaadinWorker.this.isCanceled();
+		}
+
+		/**
+		 * Reports work done by this subtask.
+		 *
+		 * @see ParallelVaadinWorker#workDone(long)
+		 */
+		protected final void workDone(long amount) {
+			ParallelVaadinWorker.this.workDone(amount);
+		}
+
+	}
+
+	private final AtomicLong workDone = new AtomicLong();
+
+	private final AtomicBoolean reporting = new AtomicBoolean();
+
+	private volatile long totalWork = MAX;
+
+	private volatile int reportedProgress = INDETERMINATE;
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application)
+	 */
+	public ParallelVaadinWorker(Application app) {
+		super(app);
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, ProgressListener...)
+	 */
+	public ParallelVaadinWorker(Application app, ProgressListener... listeners) {
+		super(app, listeners);
+	}
+
+	/**
+	 * @see VaadinWorker#VaadinWorker(Application, Collection)
+	 */
+	public ParallelVaadinWorker(Application app,
+			Collection<ProgressListener> listeners) {
+		super(app, listeners);
+	}
+
+	/**
+	 * Sets the amount of work that corresponds to 100% progress and resets
+	 * the work done so far. Defaults to <code>MAX</code>.
+	 *
+	 * @throws IllegalArgumentException if <code>totalWork</code> is not
+	 * positive.
+	 */
+	protected final void setTotalWork(long totalWork) {
+		if(totalWork <= 0) {
+			throw new IllegalArgumentException("totalWork must be positive!");
+		}
+		this.totalWork = totalWork;
+		this.workDone.set(0);
+	}
+
+	/**
+	 * Adds the given amount to the work done. This method may be called from
+	 * any subtask at any time. If the merged progress changed, it is
+	 * communicated by the calling thread, unless another thread is
+	 * communicating progress at the moment - in which case that thread picks
+	 * up the new value.
+	 */
+	protected final void workDone(long amount) {
+		workDone.addAndGet(amount);
+		reportProgress();
+	}
+
+	private void reportProgress() {
+		while(reporting.compareAndSet(false, true)) {
+			try {
+				int progress = (int) Math.min(MAX, workDone.get() * MAX / totalWork);
+				if(progress == reportedProgress) {
+					return;
+				}
+				reportedProgress = progress;
+				updateProgress(progress);
+			}
+			finally {
+				reporting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool the subtasks are forked into: the pool this worker is
+	 * running in or the common pool.
+	 */
+	protected ForkJoinPool getForkJoinPool() {
+		ForkJoinPool pool = ForkJoinTask.getPool();
+		return (pool != null) ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Runs the given subtask in the <code>ForkJoinPool</code> and waits for
+	 * its result.
+	 *
+	 * @return the result of the subtask or null, if the worker has been
+	 * canceled meanwhile.
+	 */
+	protected final <V> V invoke(Subtask<V> task) {
+		try {
+			ForkJoinPool pool = getForkJoinPool();
+			if(ForkJoinTask.getPool() == pool) {
+				return task.invoke();
+			}
+			return pool.invoke(task);
+		}
+		catch(CancellationException e) {
+			if(isCanceled()) {
+				return null;
+			}
+			throw e;
+		}
+		finally {
+			// picks up reports that raced with the last one
+			reportProgress();
+		}
+	}
+
+}
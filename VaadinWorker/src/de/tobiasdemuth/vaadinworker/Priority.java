@@ -0,0 +1,30 @@
+package de.tobiasdemuth.vaadinworker;
+
+/**
+ * The priority-classes a <code>VaadinWorker</code> can be submitted with. 
+ * Executors supporting priorities run waiting tasks of a higher class first,
+ * but let waiting tasks age into higher classes, so that no task waits 
+ * forever.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public enum Priority {
+	
+	/**
+	 * For short tasks a user is actively waiting for, like a lookup.
+	 */
+	INTERACTIVE,
+	
+	/**
+	 * The default for everything else.
+	 */
+	NORMAL,
+	
+	/**
+	 * For long-running bulk-work like report-exports. Such scavenger-tasks 
+	 * only run while no other task is waiting, unless they have been waiting
+	 * for a very long time themselves.
+	 */
+	BULK
+
+}
@@ -0,0 +1,40 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.io.Serializable;
+
+/**
+ * A ProgressDispatcher decides when and on which thread the progress 
+ * communicated by a <code>VaadinWorker</code> reaches its registered
+ * <code>ProgressListener</code>s. Implementations hand the progress over by
+ * calling <code>VaadinWorker.fireWorkProgressed(int, String)</code>, which 
+ * informs all listeners within one acquisition of the 
+ * <code>Application</code>-lock.
+ * 
+ * Both methods are called by the thread running the <code>VaadinWorker</code>.
+ * Implementations keeping state between calls must therefore not be shared 
+ * among several workers.
+ *
+ * @see de.tobiasdemuth.vaadinworker.progressdispatcher.LockingProgressDispatcher
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public interface ProgressDispatcher extends Serializable {
+	
+	/**
+	 * Called for every call of <code>VaadinWorker.updateProgress()</code>.
+	 * 
+	 * @param worker the progressed VaadinWorker-instance.
+	 * @param progress the already normalized progress, either 
+	 * <code>VaadinWorker.INDETERMINATE</code> or a value between 0 and 100.
+	 * @param state a description for what is currently getting done, never 
+	 * null.
+	 */
+	public void dispatch(VaadinWorker worker, int progress, String state);
+	
+	/**
+	 * Called right before <code>updateUI()</code> with the lock of the 
+	 * <code>Application</code> already held. Any progress not yet handed to 
+	 * the listeners must be handed over now.
+	 */
+	public void flush(VaadinWorker worker);
+
+}
@@ -0,0 +1,63 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.io.Serializable;
+
+/**
+ * An immutable snapshot of the progress of a <code>VaadinWorker</code>. Every
+ * call of <code>updateProgress()</code> publishes a new snapshot, which can 
+ * be read from any thread without acquiring any lock by calling 
+ * <code>VaadinWorker.getProgressSnapshot()</code>.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class ProgressSnapshot implements Serializable {
+
+	private static final long serialVersionUID = -2270968004807219453L;
+
+	private final int progress;
+	
+	private final String state;
+	
+	private final long timestamp;
+	
+	/**
+	 * @param progress a value between 0 and 100 or 
+	 * <code>VaadinWorker.INDETERMINATE</code>.
+	 * @param state a description for what is currently getting done.
+	 * @param timestamp the time of the update as returned by 
+	 * <code>System.currentTimeMillis()</code>.
+	 */
+	public ProgressSnapshot(int progress, String state, long timestamp) {
+		this.progress = progress;
+		this.state = (state != null ? state : "");
+		this.timestamp = timestamp;
+	}
+	
+	/**
+	 * @return a value between 0 and 100 or 
+	 * <code>VaadinWorker.INDETERMINATE</code>.
+	 */
+	public int getProgress() {
+		return progress;
+	}
+	
+	/**
+	 * @return a description for what is currently getting done, never null.
+	 */
+	public String getState() {
+		return state;
+	}
+	
+	/**
+	 * @return the time this snapshot was taken in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	@Override
+	public String toString() {
+		return "ProgressSnapshot[" + progress + ", " + state + "]";
+	}
+
+}
@@ -0,0 +1,175 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Caches the results of <code>KeyedVaadinWorker</code>s. A cache is meant to
+ * be shared by all sessions - e.g. by keeping it in a static field of the
+ * worker-class - so a result computed for one user is reused for every user
+ * asking for the same key.
+ * </p>
+ *
+ * <p>
+ * The cached results are handed out as they are, not copied. As they are
+ * shared by all sessions, they must be immutable - or at least never be
+ * modified once they are cached, e.g. by using unmodifiable collections. A
+ * worker needing a mutable result has to copy it first.
+ * </p>
+ *
+ * <p>
+ * Every result has a weight, e.g. its number of rows. Once the total weight
+ * exceeds the maximum, the least recently used results are evicted. Results
+ * expire a fixed time after they have been put into the cache. All methods
+ * are thread-safe.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class ResultCache {
+
+	private static final class Entry {
+
+		private final Object value;
+
+		private final long weight;
+
+		private final long expires;
+
+		private Entry(Object value, long weight, long expires) {
+			this.value = value;
+			this.weight = weight;
+			this.expires = expires;
+		}
+
+	}
+
+	private final long maxWeight;
+
+	private final long timeToLive;
+
+	private final Ticker ticker;
+
+	// Iterates from the least to the most recently used entry
+	private final LinkedHashMap<Object, Entry> entries =
+			new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	/**
+	 * @param maxWeight the maximum total weight of all cached results.
+	 * @param timeToLive the time a result is cached at most, not positive for
+	 * caching results until they are evicted.
+	 * @param unit the unit of <code>timeToLive</code>.
+	 * @throws IllegalArgumentException if <code>maxWeight</code> is not
+	 * positive.
+	 */
+	public ResultCache(long maxWeight, long timeToLive, TimeUnit unit) {
+		this(maxWeight, timeToLive, unit, Ticker.SYSTEM);
+	}
+
+	/**
+	 * @param ticker the source of the time the results expire by.
+	 */
+	ResultCache(long maxWeight, long timeToLive, TimeUnit unit, Ticker ticker) {
+		if(maxWeight <= 0) {
+			throw new IllegalArgumentException("The maximum weight must be " +
+					"positive!");
+		}
+		this.maxWeight = maxWeight;
+		this.timeToLive = (timeToLive > 0) ? unit.toNanos(timeToLive) : 0;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Returns the result cached for the given key, or null if there is none
+	 * or it has expired.
+	 */
+	public synchronized Object get(Object key) {
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			return null;
+		}
+		if(isExpired(entry, ticker.read())) {
+			remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Caches the given result, replacing any result cached for the key. A
+	 * result weighing more than the maximum weight is not cached. The result
+	 * must not be modified afterwards.
+	 *
+	 * @param weight the weight of the result, at least 1.
+	 * @throws NullPointerException if <code>value</code> is null.
+	 */
+	public synchronized void put(Object key, Object value, long weight) {
+		if(value == null) {
+			throw new NullPointerException("Null cannot be cached!");
+		}
+		weight = Math.max(weight, 1);
+
+		remove(key);
+		if(weight > maxWeight) {
+			return;
+		}
+
+		entries.put(key, new Entry(value, weight, ticker.read() + timeToLive));
+		this.weight += weight;
+
+		// Evicts the least recently used entries, never the new one
+		Iterator<Entry> it = entries.values().iterator();
+		while(this.weight > maxWeight) {
+			Entry entry = it.next();
+			it.remove();
+			this.weight -= entry.weight;
+		}
+	}
+
+	/**
+	 * Removes the result cached for the given key.
+	 */
+	public synchronized void invalidate(Object key) {
+		remove(key);
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @return the number of cached results, including expired ones not yet
+	 * removed.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the total weight of all cached results.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	private void remove(Object key) {
+		Entry entry = entries.remove(key);
+		if(entry != null) {
+			weight -= entry.weight;
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		// The origin of the ticker is arbitrary, so no expiry-time is special
+		return timeToLive > 0 && now - entry.expires >= 0;
+	}
+
+}
@@ -0,0 +1,30 @@
+package de.tobiasdemuth.vaadinworker;
+
+/**
+ * A source of monotonic time in nanoseconds. Classes measuring time read it
+ * from a <code>Ticker</code> instead of calling <code>System.nanoTime()</code>
+ * themselves, so tests can advance the time instead of sleeping.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public interface Ticker {
+	
+	/**
+	 * Reads <code>System.nanoTime()</code>.
+	 */
+	public static final Ticker SYSTEM = new Ticker() {
+		
+		public long read() {
+			return System.nanoTime();
+		}
+		
+	};
+	
+	/**
+	 * Returns the current time in nanoseconds. Just as for 
+	 * <code>System.nanoTime()</code> the origin is arbitrary and may lie in 
+	 * the future, so only differences between two readings are meaningful.
+	 */
+	public long read();
+
+}
@@ -0,0 +1,263 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A hashed timer wheel tracking many timeouts with a single thread. The
+ * wheel is divided into buckets, each covering one tick. A timeout is put
+ * into the bucket of the tick it expires in, together with the number of
+ * rounds the wheel has to turn before. Scheduling and canceling are
+ * therefore constant in time, no matter how many timeouts are pending, while
+ * the precision is limited to one tick.
+ * </p>
+ *
+ * <p>
+ * The thread turning the wheel is a daemon, which is started with the first
+ * timeout and terminates as soon as no timeout is pending anymore. The
+ * actions of expired timeouts are run by this thread, so they must return
+ * quickly.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class TimerWheel {
+
+	/**
+	 * A pending action of a <code>TimerWheel</code>.
+	 */
+	public static final class Timeout {
+
+		private final TimerWheel wheel;
+
+		private final Runnable action;
+
+		private final int bucket;
+
+		private long rounds;
+
+		private boolean done = false;
+
+		private Timeout(TimerWheel wheel, Runnable action, int bucket, long rounds) {
+			this.wheel = wheel;
+			this.action = action;
+			this.bucket = bucket;
+			this.rounds = rounds;
+		}
+
+		/**
+		 * Cancels this timeout, so its action will not be run.
+		 *
+		 * @return false if the action has already been run or the timeout has
+		 * been canceled before.
+		 */
+		public boolean cancel() {
+			return wheel.cancel(this);
+		}
+
+	}
+
+	private final class Turner implements Runnable {
+
+		public void run() {
+			while(true) {
+				List<Timeout> expired;
+				synchronized(lock) {
+					if(pending == 0) {
+						turner = null; // Idle, a new one is started on demand
+						return;
+					}
+
+					long sleep = startTime + (tick + 1) * tickNanos - ticker.read();
+					if(sleep > 0) {
+						try {
+							TimeUnit.NANOSECONDS.timedWait(lock, sleep);
+						}
+						catch(InterruptedException e) {
+							// Ignore, the wheel never stops with pending timeouts
+						}
+						continue;
+					}
+
+					expired = expireTick();
+				}
+
+				for(Timeout timeout : expired) {
+					try {
+						timeout.action.run();
+					}
+					catch(RuntimeException e) {
+						Thread thread = Thread.currentThread();
+						thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+					}
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The default length of a tick in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 100;
+
+	/**
+	 * The default number of buckets.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final TimerWheel SHARED =
+			new TimerWheel(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+
+	private final long tickNanos;
+
+	private final int mask;
+
+	private final Set<Timeout>[] buckets;
+
+	private final Ticker ticker;
+
+	private final Object lock = new Object();
+
+	private long startTime;
+
+	private long tick;
+
+	private int pending = 0;
+
+	private Thread turner;
+
+	/**
+	 * @param tickMillis the length of a tick in milliseconds, which is the
+	 * precision of the timeouts.
+	 * @param wheelSize the number of buckets, rounded up to the next power
+	 * of two.
+	 * @throws IllegalArgumentException if one of the values is not positive.
+	 */
+	public TimerWheel(long tickMillis, int wheelSize) {
+		this(tickMillis, wheelSize, Ticker.SYSTEM);
+	}
+
+	/**
+	 * @param ticker the source of the time. The wheel still waits for the
+	 * ticks in real time.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	TimerWheel(long tickMillis, int wheelSize, Ticker ticker) {
+		if(tickMillis <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("Tick and wheel-size must be positive!");
+		}
+		int size = Integer.highestOneBit(wheelSize);
+		if(size < wheelSize) {
+			size <<= 1;
+		}
+
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.ticker = ticker;
+		this.mask = size - 1;
+		this.buckets = new Set[size];
+		for(int i = 0; i < size; i++) {
+			buckets[i] = new HashSet<Timeout>();
+		}
+	}
+
+	/**
+	 * @return the <code>TimerWheel</code> shared by all workers of this
+	 * class-loader.
+	 */
+	public static TimerWheel getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Schedules the given action to be run once the given delay has passed.
+	 *
+	 * @return the handle for canceling the timeout.
+	 * @throws NullPointerException if <code>action</code> or
+	 * <code>unit</code> is null.
+	 */
+	public Timeout schedule(Runnable action, long delay, TimeUnit unit) {
+		if(action == null) {
+			throw new NullPointerException("Action is not allowed to be null!");
+		}
+		final long now = ticker.read();
+		final long nanos = unit.toNanos(Math.max(0, delay));
+
+		synchronized(lock) {
+			if(turner == null) {
+				startTime = now;
+				tick = 0;
+				turner = new Thread(new Turner(), "vaadinworker-timer-wheel");
+				turner.setDaemon(true);
+				turner.start();
+			}
+
+			// Only differences of readings are meaningful, and the sum of
+			// those saturates, so huge delays never wrap around into the past
+			long elapsed = Math.max(0, now - startTime);
+			elapsed = (nanos > Long.MAX_VALUE - elapsed) ? 
+					Long.MAX_VALUE : elapsed + nanos;
+
+			// The bucket of a tick is expired at the end of the tick
+			long ticks = elapsed / tickNanos + (elapsed % tickNanos > 0 ? 1 : 0);
+			long expiryTick = Math.max(tick, ticks - 1);
+			int bucket = (int) (expiryTick & mask);
+			Timeout timeout = new Timeout(this, action, bucket,
+					(expiryTick - tick) / buckets.length);
+			buckets[bucket].add(timeout);
+			pending++;
+			return timeout;
+		}
+	}
+
+	/**
+	 * Returns the number of timeouts that have neither expired nor been
+	 * canceled.
+	 */
+	public int getPendingCount() {
+		synchronized(lock) {
+			return pending;
+		}
+	}
+
+	private boolean cancel(Timeout timeout) {
+		synchronized(lock) {
+			if(timeout.done) {
+				return false;
+			}
+			timeout.done = true;
+			buckets[timeout.bucket].remove(timeout);
+			pending--;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes and returns the timeouts expiring in the current tick and
+	 * advances to the next one. Must be called with the lock held.
+	 */
+	private List<Timeout> expireTick() {
+		List<Timeout> expired = new ArrayList<Timeout>();
+		Set<Timeout> bucket = buckets[(int) (tick & mask)];
+		for(Timeout timeout : bucket) {
+			if(timeout.rounds <= 0) {
+				expired.add(timeout);
+			}
+			else {
+				timeout.rounds--;
+			}
+		}
+		for(Timeout timeout : expired) {
+			bucket.remove(timeout);
+			timeout.done = true;
+			pending--;
+		}
+		tick++;
+		return expired;
+	}
+
+}
@@ -0,0 +1,536 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import com.vaadin.Application;
+import com.vaadin.service.ApplicationContext;
+import com.vaadin.terminal.gwt.server.WebApplicationContext;
+
+/**
+ * <p>
+ * There is exactly one <code>UIActionQueue</code> per <code>Application</code>.
+ * Any thread may post actions to it without ever touching the lock of the 
+ * <code>Application</code>. The queued actions are executed in one batch by 
+ * the next request-thread of the <code>Application</code>, right before the 
+ * request itself gets handled - which might be a polling request issued by a 
+ * <code>ProgressIndicator</code>. The lock of the <code>Application</code> 
+ * is held while the actions are executed, so they may do arbitrary UI-updates.
+ * </p>
+ * 
+ * <p>
+ * Components that want to pull their state instead of being pushed updates 
+ * can register a <code>PollListener</code>. Those get informed during every 
+ * request, right after the queued actions have been executed.
+ * </p>
+ * 
+ * <p>
+ * The queues of a session hook themselves into the request-handling by a 
+ * single <code>TransactionListener</code> of the 
+ * <code>ApplicationContext</code>. The <code>ApplicationContext</code> 
+ * holds a lock of its own while informing its listeners, so the listener 
+ * must never be registered by a thread holding the lock of an 
+ * <code>Application</code>. The <code>ExecutorServiceContextListener</code>
+ * therefore registers it by <code>install(HttpSession, 
+ * ApplicationContext)</code> as soon as the context is created. Without it,
+ * make sure to call <code>get(Application)</code> for the first time from 
+ * a thread that does not hold the lock of the <code>Application</code>; 
+ * otherwise the registration is put off until the queue is asked for or 
+ * posted to by a thread not holding it - typically the first worker 
+ * posting its results - and the queue is drained starting with the request
+ * after that.
+ * </p>
+ * 
+ * <p>
+ * A queue is kept as an attribute of the <code>HttpSession</code>, so it lives 
+ * exactly as long as the session does. The queue is closed when the 
+ * <code>Application</code> is closed or the session ends: Queued actions and
+ * listeners are dropped, <code>CloseListener</code>s are informed and actions
+ * posted afterwards are ignored. Queues of <code>Application</code>s not 
+ * running in a servlet-container are closed with the 
+ * <code>Application</code> only.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class UIActionQueue implements Serializable {
+
+	private static final long serialVersionUID = -3150418262432739082L;
+	
+	public static interface PollListener extends Serializable {
+		
+		/**
+		 * This method gets called during every request of the 
+		 * <code>Application</code> - including the polling requests of any 
+		 * <code>ProgressIndicator</code> - with the lock of the 
+		 * <code>Application</code> held. It must return quickly.
+		 */
+		public void polled();
+		
+	}
+	
+	public static interface CloseListener extends Serializable {
+		
+		/**
+		 * This method gets called once the queue has been closed, because the
+		 * <code>Application</code> has been closed or its session has ended.
+		 * The lock of the <code>Application</code> might not be held.
+		 */
+		public void queueClosed();
+		
+	}
+	
+	/**
+	 * Holds the queues of all <code>Application</code>s of a session, hands
+	 * the requests of its <code>ApplicationContext</code> to them and closes
+	 * them once the session ends.
+	 */
+	private static final class Registry implements HttpSessionBindingListener,
+			ApplicationContext.TransactionListener {
+		
+		private static final long serialVersionUID = 2804129647520418805L;
+		
+		// Not serialized, as deserialized queues are no longer registered.
+		// Read on every request, modified with REGISTRY_LOCK held only.
+		private transient Map<Application, UIActionQueue> queues;
+		
+		// The contexts this registry listens to, guarded by REGISTRY_LOCK
+		private transient Set<ApplicationContext> contexts;
+		
+		private Registry() {
+			init();
+		}
+		
+		private void init() {
+			queues = new ConcurrentHashMap<Application, UIActionQueue>();
+			contexts = Collections.newSetFromMap(
+					new WeakHashMap<ApplicationContext, Boolean>());
+		}
+		
+		public void valueBound(HttpSessionBindingEvent event) {
+			// Nothing to do
+		}
+		
+		public void valueUnbound(HttpSessionBindingEvent event) {
+			List<UIActionQueue> closed;
+			synchronized(REGISTRY_LOCK) {
+				closed = new ArrayList<UIActionQueue>(queues.values());
+				queues.clear();
+			}
+			for(UIActionQueue queue : closed) {
+				queue.close();
+			}
+		}
+		
+		public void transactionStart(Application application, Object transactionData) {
+			UIActionQueue queue = queues.get(application);
+			if(queue != null) {
+				queue.requestStarted(application);
+			}
+		}
+		
+		public void transactionEnd(Application application, Object transactionData) {
+			UIActionQueue queue = queues.get(application);
+			if(queue != null) {
+				queue.requestEnded(application);
+			}
+		}
+		
+		private void readObject(ObjectInputStream in) throws IOException, 
+				ClassNotFoundException {
+			in.defaultReadObject();
+			init();
+		}
+		
+	}
+	
+	/**
+	 * A registration of a <code>Registry</code> with a context that has been
+	 * put off, as the thread asking for the queue held the lock of the
+	 * <code>Application</code>.
+	 */
+	private static final class Hook {
+		
+		private final ApplicationContext context;
+		
+		private final Registry registry;
+		
+		private Hook(ApplicationContext context, Registry registry) {
+			this.context = context;
+			this.registry = registry;
+		}
+		
+	}
+	
+	private static final String REGISTRY_ATTRIBUTE = 
+			UIActionQueue.class.getName() + ".REGISTRY";
+	
+	private static final Object REGISTRY_LOCK = new Object();
+	
+	// For Applications without an HttpSession, emptied when they are closed
+	private static final Registry CONTEXTLESS = new Registry();
+	
+	/**
+	 * Hooks the queues of the given session into the request-handling of 
+	 * its <code>ApplicationContext</code>. Nothing happens if this has been 
+	 * done already. This method must not be called by a thread holding the 
+	 * lock of an <code>Application</code>; the 
+	 * <code>ExecutorServiceContextListener</code> calls it as soon as Vaadin 
+	 * stores the context in the session.
+	 * 
+	 * @throws NullPointerException if one of the arguments is null.
+	 */
+	public static void install(HttpSession session, ApplicationContext context) {
+		if(session == null || context == null) {
+			throw new NullPointerException("Session and context are not allowed to be null!");
+		}
+		
+		Registry registry;
+		synchronized(REGISTRY_LOCK) {
+			registry = getRegistry(session);
+			if(registry == null || !registry.contexts.add(context)) {
+				return;
+			}
+		}
+		listen(context, registry);
+	}
+	
+	/**
+	 * Returns the <code>UIActionQueue</code> of the given 
+	 * <code>Application</code>, creating it if necessary. A closed queue is
+	 * returned for an <code>Application</code> that has been closed or whose
+	 * session has ended. See the class-documentation on calling this method 
+	 * for the first time with the lock of the <code>Application</code> held.
+	 * 
+	 * @throws NullPointerException if <code>app</code> is null.
+	 * @throws IllegalStateException if the <code>Application</code> has no
+	 * <code>ApplicationContext</code>, i.e. is not running.
+	 */
+	public static UIActionQueue get(Application app) 
+			throws IllegalStateException {
+		if(app == null) {
+			throw new NullPointerException("Application is not allowed to be null!");
+		}
+		
+		ApplicationContext context = app.getContext();
+		if(context == null) {
+			throw new IllegalStateException("The Application is not running!");
+		}
+		
+		UIActionQueue queue;
+		Registry registry;
+		synchronized(REGISTRY_LOCK) {
+			registry = getRegistry(context);
+			if(registry == null || !app.isRunning()) {
+				return new UIActionQueue(null);
+			}
+			
+			queue = registry.queues.get(app);
+			if(queue == null) {
+				queue = new UIActionQueue(app);
+				registry.queues.put(app, queue);
+			}
+			if(registry.contexts.contains(context)) {
+				return queue;
+			}
+		}
+		
+		if(Thread.holdsLock(app)) {
+			// The context holds its own lock while calling transactionStart(),
+			// which waits for the lock of the Application
+			queue.hook = new Hook(context, registry);
+		}
+		else {
+			queue.hook = null;
+			register(context, registry);
+		}
+		return queue;
+	}
+	
+	/**
+	 * Registers the registry as <code>TransactionListener</code> of the 
+	 * context, unless this has been done already. The same restrictions as 
+	 * for <code>listen()</code> apply.
+	 */
+	private static void register(ApplicationContext context, Registry registry) {
+		synchronized(REGISTRY_LOCK) {
+			if(!registry.contexts.add(context)) {
+				return;
+			}
+		}
+		listen(context, registry);
+	}
+	
+	/**
+	 * Registers the registry as <code>TransactionListener</code> of the
+	 * context. Must not be called with <code>REGISTRY_LOCK</code> or the lock
+	 * of an <code>Application</code> held, as the context might hold its own
+	 * lock while calling <code>transactionStart()</code>.
+	 */
+	private static void listen(ApplicationContext context, Registry registry) {
+		// A deserialized context might still know the registry
+		context.removeTransactionListener(registry);
+		context.addTransactionListener(registry);
+	}
+	
+	/**
+	 * Returns the registry of the context's session, or null if the session 
+	 * has ended. Must be called with <code>REGISTRY_LOCK</code> held.
+	 */
+	private static Registry getRegistry(ApplicationContext context) {
+		if(!(context instanceof WebApplicationContext)) {
+			return CONTEXTLESS;
+		}
+		HttpSession session = ((WebApplicationContext) context).getHttpSession();
+		if(session == null) {
+			return CONTEXTLESS;
+		}
+		return getRegistry(session);
+	}
+	
+	/**
+	 * Returns the registry of the session, or null if the session has ended.
+	 * Must be called with <code>REGISTRY_LOCK</code> held.
+	 */
+	private static Registry getRegistry(HttpSession session) {
+		try {
+			Registry registry = (Registry) session.getAttribute(REGISTRY_ATTRIBUTE);
+			if(registry == null) {
+				registry = new Registry();
+				session.setAttribute(REGISTRY_ATTRIBUTE, registry);
+			}
+			return registry;
+		}
+		catch(IllegalStateException e) {
+			// The session has been invalidated
+			return null;
+		}
+	}
+	
+	private transient Application app;
+	
+	private transient Queue<Runnable> actions;
+	
+	private transient List<PollListener> pollListeners;
+	
+	private transient List<CloseListener> closeListeners;
+	
+	private transient volatile boolean closed;
+	
+	// Set while the registration of the registry has been put off
+	private transient volatile Hook hook;
+	
+	/**
+	 * @param app the <code>Application</code> to serve, null for a closed 
+	 * queue.
+	 */
+	private UIActionQueue(Application app) {
+		this.app = app;
+		this.actions = new ConcurrentLinkedQueue<Runnable>();
+		this.pollListeners = new CopyOnWriteArrayList<PollListener>();
+		this.closeListeners = new CopyOnWriteArrayList<CloseListener>();
+		this.closed = (app == null);
+	}
+	
+	/**
+	 * Adds a PollListener. Nothing happens if the listener is <code>null</code>
+	 * or is already registered, or if the queue has been closed.
+	 */
+	public void addListener(PollListener l) {
+		if(l != null && !closed && !pollListeners.contains(l)) {
+			pollListeners.add(l);
+		}
+	}
+	
+	/**
+	 * Removes a PollListener. Nothing happens if the listener is 
+	 * <code>null</code> or is not known.
+	 */
+	public void removeListener(PollListener l) {
+		if(l != null) {
+			pollListeners.remove(l);
+		}
+	}
+	
+	/**
+	 * Adds a CloseListener. If the queue has been closed already, the 
+	 * listener is informed right away.
+	 */
+	public void addListener(CloseListener l) {
+		if(l == null) {
+			return;
+		}
+		if(!closeListeners.contains(l)) {
+			closeListeners.add(l);
+		}
+		if(closed && closeListeners.remove(l)) {
+			l.queueClosed();
+		}
+	}
+	
+	/**
+	 * Removes a CloseListener. Nothing happens if the listener is 
+	 * <code>null</code> or is not known.
+	 */
+	public void removeListener(CloseListener l) {
+		if(l != null) {
+			closeListeners.remove(l);
+		}
+	}
+	
+	/**
+	 * Enqueues the given action. It will be executed with the lock of the
+	 * <code>Application</code> held during the next request. This method 
+	 * never blocks. The action is dropped if the queue has been closed. 
+	 * Called without the lock of the <code>Application</code> held, it 
+	 * completes a registration put off by <code>get(Application)</code>.
+	 * 
+	 * @throws NullPointerException if <code>action</code> is null.
+	 */
+	public void post(Runnable action) {
+		if(action == null) {
+			throw new NullPointerException("Action is not allowed to be null!");
+		}
+		Hook pending = hook;
+		if(pending != null && !Thread.holdsLock(app)) {
+			hook = null;
+			register(pending.context, pending.registry);
+		}
+		actions.offer(action);
+		if(closed) {
+			// Closed in the meantime, nobody will execute it
+			actions.clear();
+		}
+	}
+	
+	/**
+	 * Returns true if the <code>Application</code> has been closed or its
+	 * session has ended.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Drops all actions and listeners and informs the 
+	 * <code>CloseListener</code>s.
+	 */
+	private void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		actions.clear();
+		pollListeners.clear();
+		
+		for(CloseListener listener : closeListeners) {
+			listener.queueClosed();
+		}
+		closeListeners.clear();
+	}
+	
+	/**
+	 * Returns true if there are actions waiting for execution.
+	 */
+	public boolean hasPendingActions() {
+		return !actions.isEmpty();
+	}
+	
+	/**
+	 * Executes all queued actions in the calling thread. Must only be called 
+	 * with the lock of the <code>Application</code> held. If any of the 
+	 * actions fails, the remaining ones are executed nevertheless and the 
+	 * first failure is rethrown afterwards.
+	 */
+	public void drain() {
+		RuntimeException failure = null;
+		
+		Runnable action;
+		while((action = actions.poll()) != null) {
+			try {
+				action.run();
+			}
+			catch(RuntimeException e) {
+				if(failure == null) {
+					failure = e;
+				}
+			}
+		}
+		
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Executes the queued actions and informs the <code>PollListener</code>s
+	 * at the start of a request of the given <code>Application</code>.
+	 */
+	private void requestStarted(Application application) {
+		if(application != app || closed ||
+				(actions.isEmpty() && pollListeners.isEmpty())) {
+			return;
+		}
+		
+		synchronized(application) {
+			try {
+				drain();
+			}
+			finally {
+				for(PollListener listener : pollListeners) {
+					listener.polled();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the queue at the end of a request that closed the given 
+	 * <code>Application</code>.
+	 */
+	private void requestEnded(Application application) {
+		// Everything is done in requestStarted() in order to make the 
+		// results visible in the current response. Only an Application 
+		// closed by this request is taken care of.
+		if(application != app || closed || application.isRunning()) {
+			return;
+		}
+		
+		synchronized(REGISTRY_LOCK) {
+			Registry registry = getRegistry(application.getContext());
+			if(registry != null) {
+				registry.queues.remove(application);
+			}
+			CONTEXTLESS.queues.remove(application);
+		}
+		close();
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, 
+			ClassNotFoundException {
+		// A deserialized queue is no longer known to the registry and 
+		// therefore stays closed forever
+		in.defaultReadObject();
+		this.app = null;
+		this.actions = new ConcurrentLinkedQueue<Runnable>();
+		this.pollListeners = new CopyOnWriteArrayList<PollListener>();
+		this.closeListeners = new CopyOnWriteArrayList<CloseListener>();
+		this.closed = true;
+	}
+
+}
@@ -0,0 +1,354 @@
+package de.tobiasdemuth.vaadinworker;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A <code>Flow.Publisher</code> handing items from a background-thread to
+ * subscribers in the UI. Every subscriber is only called with the lock of
+ * the <code>Application</code> held - by the request-thread draining the
+ * <code>UIActionQueue</code> - and only receives as many items as it has
+ * requested. A slow subscriber therefore never gets flooded.
+ * </p>
+ *
+ * <p>
+ * Items waiting for demand are kept per subscriber. A conflating publisher
+ * (capacity <code>CONFLATE</code>) keeps only the latest one, which suits
+ * state like progress. Otherwise at most <code>capacity</code> items are
+ * buffered and <code>offer()</code> blocks while the buffer of any
+ * subscriber is full, throttling the producer to the pace of the UI. A
+ * subscriber that has not made room within <code>MAX_WAIT_MILLIS</code> - 
+ * e.g. because its component has been detached - loses its oldest buffered
+ * item instead, and keeps losing items without any waiting until it 
+ * requests more. So a producer is never stuck. The producer is never blocked
+ * while holding the lock of the <code>Application</code>, as this would 
+ * prevent the delivery - the buffer grows beyond its capacity instead.
+ * </p>
+ *
+ * <p>
+ * All subscriptions are canceled once the <code>Application</code> is closed
+ * or its session ends.
+ * </p>
+ *
+ * <p>
+ * The publisher is hot: Subscribers only receive items offered after they
+ * subscribed, except for a conflating publisher, which starts with the
+ * latest item.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class UIPublisher<T> implements Flow.Publisher<T> {
+
+	/**
+	 * The capacity of a publisher keeping only the latest item.
+	 */
+	public static final int CONFLATE = 0;
+
+	/**
+	 * The time <code>offer()</code> waits for a subscriber to make room at
+	 * most, before dropping the subscriber's oldest item.
+	 */
+	public static final long MAX_WAIT_MILLIS = 5000;
+
+	/**
+	 * Cancels all subscriptions once the queue is closed.
+	 */
+	private final class Closer implements UIActionQueue.CloseListener {
+
+		private static final long serialVersionUID = -2291457106713508217L;
+
+		public void queueClosed() {
+			for(UISubscription subscription : subscriptions) {
+				subscription.cancel();
+			}
+		}
+
+	}
+
+	private final class UISubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super T> subscriber;
+
+		private final Deque<T> items = new ArrayDeque<T>();
+
+		private long demand = 0;
+
+		private boolean scheduled = false;
+
+		private boolean done = false;
+
+		private boolean canceled = false;
+
+		// Set once the producer has given up waiting, until new demand arrives
+		private boolean stalled = false;
+
+		private Throwable failure;
+
+		private UISubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public synchronized void request(long n) {
+			if(canceled) {
+				return;
+			}
+			if(n <= 0) {
+				cancel();
+				post(new Runnable() {
+
+					public void run() {
+						subscriber.onError(new IllegalArgumentException(
+								"Demand must be positive!"));
+					}
+
+				});
+				return;
+			}
+			demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+			stalled = false;
+			scheduleDelivery();
+		}
+
+		public void cancel() {
+			synchronized(this) {
+				canceled = true;
+				items.clear();
+				notifyAll();
+			}
+			subscriptions.remove(this);
+		}
+
+		/**
+		 * Adds the item for delivery, waiting for free space if necessary.
+		 */
+		private synchronized void offer(T item, boolean mayWait) {
+			if(canceled || done) {
+				return;
+			}
+			if(capacity == CONFLATE) {
+				items.clear();
+			}
+			else if(mayWait) {
+				long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+				while(items.size() >= capacity && !canceled) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(stalled || remaining <= 0) {
+						// The subscriber does not keep up, drops its oldest item
+						// without waiting again until it requests more
+						stalled = true;
+						items.removeFirst();
+						break;
+					}
+					try {
+						wait(remaining);
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return; // The item is dropped for this subscriber
+					}
+				}
+				if(canceled) {
+					return;
+				}
+			}
+			items.addLast(item);
+			scheduleDelivery();
+		}
+
+		private synchronized void complete(Throwable failure) {
+			if(!done) {
+				done = true;
+				this.failure = failure;
+				scheduleDelivery();
+			}
+		}
+
+		/**
+		 * Posts this subscription to the UIActionQueue if there is anything
+		 * to deliver. Must be called with the monitor of this subscription
+		 * held.
+		 */
+		private void scheduleDelivery() {
+			if(!scheduled && !canceled &&
+					((demand > 0 && !items.isEmpty()) || (done && items.isEmpty()))) {
+				scheduled = true;
+				post(this);
+			}
+		}
+
+		/**
+		 * Delivers the requested items. Gets called with the lock of the
+		 * <code>Application</code> held.
+		 */
+		public void run() {
+			while(true) {
+				T item;
+				boolean completed = false;
+				Throwable error = null;
+				synchronized(this) {
+					if(canceled) {
+						scheduled = false;
+						return;
+					}
+					if(demand > 0 && !items.isEmpty()) {
+						item = items.removeFirst();
+						demand--;
+						notifyAll(); // Frees space for a waiting producer
+					}
+					else if(done && items.isEmpty()) {
+						item = null;
+						completed = true;
+						error = failure;
+						canceled = true;
+					}
+					else {
+						scheduled = false;
+						return;
+					}
+				}
+
+				if(completed) {
+					subscriptions.remove(this);
+					if(error != null) {
+						subscriber.onError(error);
+					}
+					else {
+						subscriber.onComplete();
+					}
+					return;
+				}
+				subscriber.onNext(item);
+			}
+		}
+
+	}
+
+	private final Application app;
+
+	private final int capacity;
+
+	private final CopyOnWriteArrayList<UISubscription> subscriptions =
+			new CopyOnWriteArrayList<UISubscription>();
+
+	private volatile T latest;
+
+	private volatile boolean completed = false;
+
+	private volatile Throwable failure;
+
+	private volatile UIActionQueue uiActionQueue;
+
+	private final Closer closer = new Closer();
+
+	/**
+	 * @param app the <code>Application</code> whose lock guards the
+	 * subscribers.
+	 * @param capacity the number of items buffered per subscriber or
+	 * <code>CONFLATE</code> for keeping only the latest one.
+	 * @throws NullPointerException if <code>app</code> is null.
+	 * @throws IllegalArgumentException if <code>capacity</code> is negative.
+	 */
+	public UIPublisher(Application app, int capacity) {
+		if(app == null) {
+			throw new NullPointerException("Application is not allowed to be null!");
+		}
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative!");
+		}
+		this.app = app;
+		this.capacity = capacity;
+	}
+
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("Subscriber is not allowed to be null!");
+		}
+
+		UISubscription subscription = new UISubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscriptions.add(subscription);
+		getQueue().addListener(closer);
+
+		T current = latest;
+		if(capacity == CONFLATE && current != null) {
+			subscription.offer(current, false);
+		}
+		if(completed) {
+			subscription.complete(failure);
+		}
+	}
+
+	/**
+	 * Hands the item to all current subscribers. This may block if the
+	 * publisher is not conflating and a subscriber's buffer is full.
+	 *
+	 * @throws NullPointerException if <code>item</code> is null.
+	 */
+	public void offer(T item) {
+		if(item == null) {
+			throw new NullPointerException("Item is not allowed to be null!");
+		}
+		if(capacity == CONFLATE) {
+			latest = item;
+		}
+
+		final boolean mayWait = !Thread.holdsLock(app);
+		for(UISubscription subscription : subscriptions) {
+			subscription.offer(item, mayWait);
+		}
+	}
+
+	/**
+	 * Completes all subscriptions once their buffered items have been
+	 * delivered. Subscribers arriving later are completed right away.
+	 */
+	public void complete() {
+		fail(null);
+	}
+
+	/**
+	 * Completes all subscriptions with the given error once their buffered
+	 * items have been delivered. Subscribers arriving later receive the error
+	 * right away.
+	 *
+	 * @param failure the error, null for a normal completion.
+	 */
+	public void fail(Throwable failure) {
+		if(completed) {
+			return;
+		}
+		this.failure = failure;
+		completed = true;
+		for(UISubscription subscription : subscriptions) {
+			subscription.complete(failure);
+		}
+	}
+
+	/**
+	 * Returns true if any subscriber is registered, so producers can skip
+	 * creating items nobody receives.
+	 */
+	public boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	private void post(Runnable delivery) {
+		getQueue().post(delivery);
+	}
+
+	private UIActionQueue getQueue() {
+		UIActionQueue queue = uiActionQueue;
+		if(queue == null) {
+			queue = UIActionQueue.get(app);
+			uiActionQueue = queue;
+		}
+		return queue;
+	}
+
+}
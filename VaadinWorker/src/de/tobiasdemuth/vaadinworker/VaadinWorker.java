@@ -1,12 +1,28 @@
 package de.tobiasdemuth.vaadinworker;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.vaadin.Application;
 
+import de.tobiasdemuth.vaadinworker.progressdispatcher.CoalescingProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.progressdispatcher.LockingProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.progressdispatcher.NonBlockingProgressDispatcher;
+
 /**
  * This class offers an easy way for encapsulating background-tasks. The long-
  * running task must be done in <code>runInBackground()</code>, while resulting
@@ -24,6 +40,28 @@ import com.vaadin.Application;
  * is important that all actions in a <code>ProgressListener</code> (and also in
  * <code>updateGUI()</code>) are finished quickly.
  * 
+ * Workers that need to update the UI more often may instead post their
+ * updates to the <code>UIActionQueue</code> of the <code>Application</code>
+ * by calling <code>postToUI(Runnable)</code>. Those updates are executed in
+ * one batch by the next request-thread, without the worker ever touching the
+ * lock.
+ * 
+ * Views that only display the progress do not need to register a listener at
+ * all: Every progress-update is published as an immutable 
+ * <code>ProgressSnapshot</code>, which can be read at any time by calling
+ * <code>getProgressSnapshot()</code>.
+ * 
+ * Subscribers preferring to pull can subscribe to the 
+ * <code>Flow.Publisher</code>s returned by <code>getProgressPublisher()</code>
+ * and <code>getResultPublisher()</code>. They are called under the lock as 
+ * well, but only with as many items as they requested.
+ * 
+ * Workers making many independent blocking calls - e.g. to remote services -
+ * can run them concurrently by calling <code>fanOut()</code> or 
+ * <code>fanOutAll()</code> from <code>runInBackground()</code>. Every call 
+ * gets a virtual thread of its own and counts toward the progress once it 
+ * completes.
+ * 
  * The Vaadin-Worker implements <code>Runnable</code>, so it's instances can be
  * easily overgiven to any thread.
  *
@@ -49,22 +87,84 @@ public abstract class VaadinWorker implements Runnable {
 		
 	}
 	
+	public static interface CancelListener {
+		
+		/**
+		 * This method gets called by the thread requesting the cancellation of
+		 * a worker, right after <code>isCanceled()</code> has become true. It 
+		 * allows whoever runs the worker to stop it early, e.g. by removing it
+		 * from a work-queue or by interrupting the running thread. 
+		 * 
+		 * @param worker the canceled VaadinWorker-instance.
+		 * @param mayInterruptIfRunning whether the thread running the worker 
+		 * may be interrupted.
+		 */
+		public void workCanceled(VaadinWorker worker, boolean mayInterruptIfRunning);
+		
+	}
+	
 	public final static int INDETERMINATE = -1;
 	
 	public final static int MAX = 100;
 	
+	/**
+	 * Progress-interval that lets every call of <code>updateProgress()</code>
+	 * reach the registered <code>ProgressListener</code>s immediately.
+	 */
+	public final static long IMMEDIATE = 0;
+	
+	private static final ProgressDispatcher DEFAULT_PROGRESS_DISPATCHER = 
+			new LockingProgressDispatcher();
+	
+	private static final ThreadFactory FAN_OUT_THREAD_FACTORY = 
+			Thread.ofVirtual().name("vaadinworker-fanout-", 0).factory();
+	
+	/**
+	 * How often a fan-out checks for cancel-requests while waiting for its
+	 * calls.
+	 */
+	private static final long FAN_OUT_CANCEL_CHECK_MILLIS = 100;
+	
+	/**
+	 * The number of intermediate results buffered per subscriber of the 
+	 * result-publisher.
+	 */
+	private static final int RESULT_BUFFER_CAPACITY = 64;
+	
 	private final Set<ProgressListener> progressListeners; 
 	
+	private final Set<CancelListener> cancelListeners = 
+			new CopyOnWriteArraySet<CancelListener>();
+	
 	private volatile boolean canceled = false;
 	
+	private volatile boolean started = false;
+	
 	private volatile boolean finished = false;
 	
+	private volatile boolean timedOut = false;
+	
+	// Guarded by the lock of the Application
+	private boolean uiInitialized = false;
+	
 	private boolean indeterminate;
 	
 	private boolean cancelable;
 	
+	private boolean interruptible;
+	
 	private String state;
 	
+	private ProgressDispatcher progressDispatcher = DEFAULT_PROGRESS_DISPATCHER;
+	
+	private volatile UIActionQueue uiActionQueue;
+	
+	private volatile ProgressSnapshot progressSnapshot;
+	
+	private final UIPublisher<ProgressSnapshot> progressPublisher;
+	
+	private final UIPublisher<Object> resultPublisher;
+	
 	private final Application app;
 	
 	/**
@@ -96,8 +196,14 @@ public abstract class VaadinWorker implements Runnable {
 		}
 		this.app = app;
 		this.cancelable = true;
+		this.interruptible = false;
 		this.indeterminate = false;
 		this.state = "";
+		this.progressSnapshot = new ProgressSnapshot(0, state, 
+				System.currentTimeMillis());
+		this.progressPublisher = new UIPublisher<ProgressSnapshot>(app, 
+				UIPublisher.CONFLATE);
+		this.resultPublisher = new UIPublisher<Object>(app, RESULT_BUFFER_CAPACITY);
 		
 		if(listeners != null && !listeners.isEmpty()) {
 			this.progressListeners = new CopyOnWriteArraySet<ProgressListener>(listeners);
@@ -127,6 +233,26 @@ public abstract class VaadinWorker implements Runnable {
 		}
 	}
 	
+	/**
+	 * Adds a CancelListener. Nothing happens if the listener is <code>null</code>
+	 * or is already registered.
+	 */
+	public void addListener(CancelListener l) {
+		if(l != null) {
+			this.cancelListeners.add(l);
+		}
+	}
+	
+	/**
+	 * Removes a CancelListener. Nothing happens if the listener is 
+	 * <code>null</code> or is not known.
+	 */
+	public void removeListener(CancelListener l) {
+		if(l != null) {
+			this.cancelListeners.remove(l);
+		}
+	}
+	
 	/**
 	 * Controls whether the task can be canceled by the user or not.
 	 */
@@ -141,6 +267,23 @@ public abstract class VaadinWorker implements Runnable {
 		return this.cancelable;
 	}
 	
+	/**
+	 * Controls whether a cancel-request of the user interrupts the thread 
+	 * running this task, see <code>cancel(boolean)</code>. Only enable this 
+	 * if <code>runInBackground()</code> handles interruption properly.
+	 */
+	protected final void setInterruptible(boolean interruptible) {
+		this.interruptible = interruptible;
+	}
+	
+	/**
+	 * Returns true if a cancel-request of the user interrupts the running 
+	 * task. This is false by default.
+	 */
+	public final boolean isInterruptible() {
+		return this.interruptible;
+	}
+	
 	/**
 	 * Controls whether you can tell how long the task will run or not.
 	 */
@@ -156,17 +299,133 @@ public abstract class VaadinWorker implements Runnable {
 		return this.indeterminate;
 	}
 	
+	/**
+	 * Controls how often the registered <code>ProgressListener</code>s get 
+	 * informed about progress. With the default of <code>IMMEDIATE</code> 
+	 * every call of <code>updateProgress()</code> is handed to the listeners.
+	 * Any positive value switches to coalescing mode: Only the latest 
+	 * progress / state pair is kept, calls that do not change the last 
+	 * communicated values are dropped and the listeners are informed at most 
+	 * once per <code>millis</code> milliseconds. The latest pending value is 
+	 * always communicated before <code>updateUI()</code> gets called.
+	 * 
+	 * This is a shortcut for setting a <code>CoalescingProgressDispatcher</code>.
+	 * 
+	 * @param millis the minimal time between two notifications of the
+	 * listeners, <code>IMMEDIATE</code> (or any other value &lt;= 0) disables
+	 * coalescing.
+	 */
+	protected final void setProgressInterval(long millis) {
+		if(millis > 0) {
+			setProgressDispatcher(new CoalescingProgressDispatcher(millis));
+		}
+		else {
+			setProgressDispatcher(null);
+		}
+	}
+	
+	/**
+	 * Returns the minimal time in milliseconds between two notifications of
+	 * the registered <code>ProgressListener</code>s or <code>IMMEDIATE</code>
+	 * if coalescing is disabled.
+	 */
+	public final long getProgressInterval() {
+		if(progressDispatcher instanceof CoalescingProgressDispatcher) {
+			return ((CoalescingProgressDispatcher) progressDispatcher).getInterval();
+		}
+		return IMMEDIATE;
+	}
+	
+	/**
+	 * Controls how progress-updates are handed to the registered 
+	 * <code>ProgressListener</code>s. Setting <code>null</code> restores the
+	 * default, which informs all listeners immediately from the thread calling
+	 * <code>updateProgress()</code>. A worker run by a virtual thread uses a
+	 * <code>NonBlockingProgressDispatcher</code> by default instead, as a 
+	 * virtual thread waiting for the lock of the <code>Application</code> 
+	 * pins its carrier-thread.
+	 * 
+	 * The dispatcher must be set before the worker gets submitted.
+	 * 
+	 * @see de.tobiasdemuth.vaadinworker.progressdispatcher
+	 */
+	protected final void setProgressDispatcher(ProgressDispatcher progressDispatcher) {
+		this.progressDispatcher = (progressDispatcher != null) ? 
+				progressDispatcher : DEFAULT_PROGRESS_DISPATCHER;
+	}
+	
+	/**
+	 * @return the used <code>ProgressDispatcher</code>.
+	 */
+	public final ProgressDispatcher getProgressDispatcher() {
+		return progressDispatcher;
+	}
+	
 	/**
 	 * Requests Cancellation of this VaadinWorker. All subclasses need to check 
 	 * for cancel-requests on a regular basis for this to have any effect.
+	 * A worker that is still waiting in the queue of a 
+	 * <code>BackgroundExecutor</code> will not be run at all.
 	 * 
 	 * @throws IllegalStateException if the task is not cancelable.
 	 */
 	public final void cancel() throws IllegalStateException {
+		cancel(false);
+	}
+	
+	/**
+	 * Requests Cancellation of this VaadinWorker just as <code>cancel()</code>.
+	 * If <code>mayInterruptIfRunning</code> is true, a worker run by a 
+	 * <code>BackgroundExecutor</code> is additionally interrupted, which 
+	 * aborts blocking I/O and <code>Thread.sleep()</code>. Subclasses must
+	 * not swallow the resulting <code>InterruptedException</code>s without 
+	 * checking <code>isCanceled()</code>.
+	 * 
+	 * @throws IllegalStateException if the task is not cancelable.
+	 */
+	public final void cancel(boolean mayInterruptIfRunning) 
+			throws IllegalStateException {
 		if(!isCancelable()) {
 			throw new IllegalStateException("Cannot cancel this task!");
 		}
 		canceled = true;
+		
+		for(CancelListener listener : cancelListeners) {
+			listener.workCanceled(this, mayInterruptIfRunning);
+		}
+	}
+	
+	/**
+	 * Cancels this VaadinWorker because its deadline has passed. Unlike 
+	 * <code>cancel()</code> this works for workers that are not cancelable as
+	 * well, as a deadline is a hard limit. Afterwards <code>isTimedOut()</code>
+	 * and <code>isCanceled()</code> return true. 
+	 * 
+	 * <code>updateUI()</code> is called in any case, so it can inform the user
+	 * about the timeout: If the worker is running, an exception thrown by 
+	 * <code>runInBackground()</code> - e.g. due to the interruption - is 
+	 * ignored; if it is still queued, the <code>BackgroundExecutor</code> 
+	 * finishes it by the <code>UIActionQueue</code> without running it.
+	 * 
+	 * @param mayInterruptIfRunning whether the thread running the worker may
+	 * be interrupted.
+	 * @see de.tobiasdemuth.vaadinworker.ui.BackgroundExecutor#submit(VaadinWorker, Priority, long, java.util.concurrent.TimeUnit)
+	 */
+	public final void timeOut(boolean mayInterruptIfRunning) {
+		timedOut = true;
+		canceled = true;
+		
+		for(CancelListener listener : cancelListeners) {
+			listener.workCanceled(this, mayInterruptIfRunning);
+		}
+	}
+	
+	/**
+	 * Returns true if this VaadinWorker has been canceled because its deadline
+	 * has passed.
+	 */
+	public final boolean isTimedOut() {
+		return timedOut;
 	}
 	
 	/**
@@ -178,9 +437,18 @@ public abstract class VaadinWorker implements Runnable {
 		return canceled;
 	}
 	
+	/**
+	 * Returns true once a thread has started to run this VaadinWorker. A 
+	 * worker canceled while still waiting in a work-queue is never started.
+	 */
+	public final boolean isStarted() {
+		return started;
+	}
+	
 	/**
 	 * Returns true if the work has effectively stopped, either due to a cancel-
-	 * request by the user or because there is no more work to do.
+	 * request by the user, because there is no more work to do or because it
+	 * has failed.
 	 */
 	public final boolean isFinished() {
 		return finished;
@@ -193,24 +461,302 @@ public abstract class VaadinWorker implements Runnable {
 		return app;
 	}
 	
-	public final void run() {
+	/**
+	 * Returns the latest progress communicated by calling 
+	 * <code>updateProgress()</code>. This method does not acquire any lock
+	 * and may be called from any thread.
+	 */
+	public final ProgressSnapshot getProgressSnapshot() {
+		return progressSnapshot;
+	}
+	
+	/**
+	 * Returns a <code>Flow.Publisher</code> of the progress. Subscribers 
+	 * receive the latest <code>ProgressSnapshot</code> whenever they request
+	 * one, intermediate snapshots are conflated. They are called with the lock
+	 * of the <code>Application</code> held and completed once 
+	 * <code>updateUI()</code> has been called. If the worker fails or is 
+	 * never run, e.g. because it has been canceled while queued, they receive
+	 * the failure or the reason instead.
+	 */
+	public final Flow.Publisher<ProgressSnapshot> getProgressPublisher() {
+		return progressPublisher;
+	}
+	
+	/**
+	 * Returns a <code>Flow.Publisher</code> of the intermediate results passed
+	 * to <code>publishResult()</code>. Subscribers are called with the lock of
+	 * the <code>Application</code> held and completed once 
+	 * <code>updateUI()</code> has been called, just as the subscribers of 
+	 * <code>getProgressPublisher()</code>.
+	 * 
+	 * @param <V> the type of the results the worker publishes. It is not 
+	 * checked, the subscriber has to match what the worker passes to 
+	 * <code>publishResult()</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public final <V> Flow.Publisher<V> getResultPublisher() {
+		return (Flow.Publisher<V>) resultPublisher;
+	}
+	
+	/**
+	 * Hands an intermediate result to the subscribers of the result-publisher.
+	 * A limited number of results is buffered per subscriber; if a subscriber
+	 * requests results slower than they are produced, this method blocks 
+	 * until it catches up - for <code>UIPublisher.MAX_WAIT_MILLIS</code> at
+	 * most, then the subscriber's oldest result is dropped. Results published
+	 * while nobody is subscribed are dropped.
+	 * 
+	 * @throws NullPointerException if <code>result</code> is null.
+	 */
+	protected final void publishResult(Object result) {
+		resultPublisher.offer(result);
+	}
+	
+	/**
+	 * Posts the given action to the <code>UIActionQueue</code> of the 
+	 * <code>Application</code>. The action will be executed with the lock of
+	 * the <code>Application</code> held by the next request-thread, together
+	 * with all other actions posted in the meantime. This method never blocks
+	 * and is meant to be called from <code>runInBackground()</code>.
+	 * 
+	 * @throws NullPointerException if <code>action</code> is null.
+	 */
+	protected final void postToUI(Runnable action) {
+		UIActionQueue queue = uiActionQueue;
+		if(queue == null) {
+			queue = UIActionQueue.get(app);
+			uiActionQueue = queue;
+		}
+		queue.post(action);
+	}
+	
+	/**
+	 * Runs the given calls concurrently, each in a virtual thread of its own,
+	 * and waits for all of them (fail-fast). As soon as a call fails, all 
+	 * other calls are canceled and the failure is thrown. Each completed call
+	 * advances the progress by an equal share. If this worker is canceled 
+	 * meanwhile, all calls still running are interrupted.
+	 * 
+	 * @return the results in the order of the calls or null, if this worker
+	 * has been canceled or the waiting thread was interrupted.
+	 * @throws ExecutionException wrapping the failure of the first failed 
+	 * call.
+	 */
+	protected final <T> List<T> fanOut(Collection<? extends Callable<T>> calls) 
+			throws ExecutionException {
+		List<Future<T>> futures = forkAndJoin(calls, true);
+		for(Future<T> future : futures) {
+			if(future.isCancelled()) {
+				return null;
+			}
+		}
+		
+		List<T> results = new ArrayList<T>(futures.size());
+		for(Future<T> future : futures) {
+			results.add(getCompleted(future));
+		}
+		return results;
+	}
+	
+	/**
+	 * Runs the given calls concurrently, each in a virtual thread of its own,
+	 * and waits for all of them (collect-all). Failed calls do not affect the
+	 * others. Each completed call advances the progress by an equal share. If
+	 * this worker is canceled meanwhile, all calls still running are 
+	 * interrupted and their futures are canceled.
+	 * 
+	 * @return the completed futures of the calls in the order of the calls.
+	 */
+	protected final <T> List<Future<T>> fanOutAll(Collection<? extends Callable<T>> calls) {
 		try {
-			synchronized(app) {
-				initUI();
+			return forkAndJoin(calls, false);
+		}
+		catch(ExecutionException e) {
+			// Cannot happen if not failing fast
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private <T> List<Future<T>> forkAndJoin(Collection<? extends Callable<T>> calls, 
+			boolean failFast) throws ExecutionException {
+		final ExecutorService executor = 
+				Executors.newThreadPerTaskExecutor(FAN_OUT_THREAD_FACTORY);
+		final List<Future<T>> futures = new ArrayList<Future<T>>(calls.size());
+		try {
+			CompletionService<T> completionService = 
+					new ExecutorCompletionService<T>(executor);
+			for(Callable<T> call : calls) {
+				futures.add(completionService.submit(call));
+			}
+			
+			int completed = 0;
+			while(completed < futures.size() && !isCanceled()) {
+				Future<T> future = completionService.poll(
+						FAN_OUT_CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if(future == null) {
+					continue;
+				}
+				completed++;
+				updateProgress((int) ((long) completed * MAX / futures.size()));
+				if(failFast) {
+					getCompleted(future);
+				}
 			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			// No-op for completed calls, cancels the siblings otherwise
+			for(Future<T> future : futures) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+		return futures;
+	}
+	
+	private static <T> T getCompleted(Future<T> future) throws ExecutionException {
+		try {
+			return future.get();
+		}
+		catch(InterruptedException e) {
+			// Cannot happen as the future is done already
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	public final void run() {
+		started = true;
+		if(progressDispatcher == DEFAULT_PROGRESS_DISPATCHER && 
+				Thread.currentThread().isVirtual()) {
+			// Waiting for the lock in synchronized would pin the carrier-thread
+			progressDispatcher = new NonBlockingProgressDispatcher();
+		}
+		
+		try {
+			initUIOnce();
 			
-			runInBackground();
+			try {
+				runInBackground();
+			}
+			catch(RuntimeException e) {
+				if(!isTimedOut()) {
+					throw e;
+				}
+				// Caused by the timeout, updateUI() reports it
+			}
 			
-			synchronized(app) {
-				updateUI();
+			if(!completesAsynchronously()) {
+				finish();
 			}
-			finished = true;
 		}
 		catch(Exception e) {
+			finished = true;
+			fail(e);
 			throw new RuntimeException(e.getMessage(), e);
 		}
 	}
 	
+	/**
+	 * Calls <code>initUI()</code> with the lock of the <code>Application</code>
+	 * held, unless it has been called by this method already.
+	 */
+	final void initUIOnce() {
+		synchronized(app) {
+			if(!uiInitialized) {
+				uiInitialized = true;
+				initUI();
+			}
+		}
+	}
+	
+	/**
+	 * Hands the failure of the work to the subscribers of the progress and
+	 * the results.
+	 */
+	final void fail(Throwable failure) {
+		progressPublisher.fail(failure);
+		resultPublisher.fail(failure);
+	}
+	
+	/**
+	 * Returns true if <code>runInBackground()</code> only starts the work and
+	 * the worker calls <code>finish()</code> itself once it is done.
+	 */
+	boolean completesAsynchronously() {
+		return false;
+	}
+	
+	/**
+	 * Gets called right before <code>updateUI()</code> with the lock of the
+	 * <code>Application</code> held, allowing subclasses to hand over any
+	 * pending intermediate results.
+	 */
+	void beforeUpdateUI() {
+		// Nothing pending by default
+	}
+	
+	/**
+	 * Hands the latest progress to the listeners and calls 
+	 * <code>updateUI()</code> with the lock of the <code>Application</code>
+	 * held.
+	 */
+	final void finish() {
+		synchronized(app) {
+			progressDispatcher.flush(this);
+			beforeUpdateUI();
+			updateUI();
+		}
+		finished = true;
+		
+		progressPublisher.complete();
+		resultPublisher.complete();
+	}
+	
+	/**
+	 * Finishes a worker that has timed out while still queued, just as if
+	 * it had returned from <code>runInBackground()</code> right away: 
+	 * <code>initUI()</code> and <code>updateUI()</code> are called, the latter
+	 * can check <code>isTimedOut()</code>, and the publishers are completed.
+	 * Called by the <code>BackgroundExecutor</code> with the lock of the 
+	 * <code>Application</code> held.
+	 * 
+	 * @throws IllegalStateException if the worker has not timed out or has
+	 * been started already.
+	 */
+	public final void finishTimedOut() throws IllegalStateException {
+		if(!timedOut || started) {
+			throw new IllegalStateException("Only a timed out worker that has " +
+					"never been started can be finished this way!");
+		}
+		if(!finished) {
+			initUIOnce();
+			finish();
+		}
+	}
+	
+	/**
+	 * Finishes a worker that will never be run, because it has been canceled,
+	 * dropped or rejected while still queued. Neither <code>initUI()</code> 
+	 * nor <code>updateUI()</code> are called, but <code>isFinished()</code>
+	 * becomes true and the subscribers of the publishers receive the given 
+	 * reason. Nothing happens if the worker has been started or finished 
+	 * already. Called by the <code>BackgroundExecutor</code>.
+	 * 
+	 * @param reason why the worker is not run, e.g. a 
+	 * <code>CancellationException</code>.
+	 */
+	public final void abandon(Throwable reason) {
+		if(started || finished) {
+			return;
+		}
+		finished = true;
+		fail(reason);
+	}
+	
 	/**
 	 * If you need to do any UI-initialization-work prior to starting the
 	 * long-running task, you can do it here. The method will be called
@@ -243,6 +789,7 @@ public abstract class VaadinWorker implements Runnable {
 	 * be overgiven. The param will be ignored when <code>isProgressIndeterminate()</code>
 	 * returns true. In this case always <code>INDETERMINATE</code> will be 
 	 * communicated to the listeners.
+	 * @see #setProgressDispatcher(ProgressDispatcher)
 	 */
 	protected final void updateProgress(int progress) {
 		updateProgress(progress, state);
@@ -259,10 +806,54 @@ public abstract class VaadinWorker implements Runnable {
 		if(state == null) {
 			state = "";
 		}
+		publishProgress(progress, state);
+		
+		progressDispatcher.dispatch(this, progress, state);
+		progressUpdated(progress, state);
+	}
+	
+	/**
+	 * Stores the given progress as the latest <code>ProgressSnapshot</code>
+	 * and hands it to the subscribers of the progress-publisher, without
+	 * informing the <code>ProgressListener</code>s. Never blocks and never
+	 * acquires the lock of the <code>Application</code>.
+	 * 
+	 * @param progress the already normalized progress.
+	 * @param state a description for what is currently getting done, never
+	 * null.
+	 */
+	final void publishProgress(int progress, String state) {
 		this.state = state;
+		ProgressSnapshot snapshot = new ProgressSnapshot(progress, state, 
+				System.currentTimeMillis());
+		this.progressSnapshot = snapshot;
+		progressPublisher.offer(snapshot);
+	}
+	
+	/**
+	 * Gets called by <code>updateProgress()</code> after the progress has
+	 * been handed to the dispatcher, on the thread calling it.
+	 */
+	void progressUpdated(int progress, String state) {
+		// Nobody to forward the progress to by default
+	}
+	
+	/**
+	 * Informs all registered <code>ProgressListener</code>s about the given
+	 * progress. The lock of the <code>Application</code> is acquired once for
+	 * all of them. This method is meant to be called by 
+	 * <code>ProgressDispatcher</code>s only.
+	 * 
+	 * @param progress a value between 0 and 100 or <code>INDETERMINATE</code>.
+	 * @param state a description for what is currently getting done.
+	 */
+	public final void fireWorkProgressed(int progress, String state) {
+		if(progressListeners.isEmpty()) {
+			return;
+		}
 		
-		for(ProgressListener listener : progressListeners) {
-			synchronized(app) {
+		synchronized(app) {
+			for(ProgressListener listener : progressListeners) {
 				listener.workProgressed(progress, state, this);
 			}
 		}
@@ -0,0 +1,38 @@
+package de.tobiasdemuth.vaadinworker;
+
+/**
+ * A WorkerTask is the unit actually handed to an <code>ExecutorService</code>
+ * by the <code>BackgroundExecutor</code>. It wraps a <code>VaadinWorker</code>
+ * together with the bookkeeping needed by the UI. Exposing the worker allows
+ * executors to make scheduling decisions per <code>Application</code>.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public interface WorkerTask extends Runnable {
+	
+	/**
+	 * @return the wrapped <code>VaadinWorker</code>.
+	 */
+	public VaadinWorker getWorker();
+	
+	/**
+	 * @return the priority-class the worker has been submitted with.
+	 */
+	public Priority getPriority();
+	
+	/**
+	 * Gets called by an executor that drops this task without ever running
+	 * it, e.g. because of a full work-queue. The task must release any 
+	 * resources it holds, but must not run the worker.
+	 */
+	public void discard();
+	
+	/**
+	 * @return true if the task is handed to the executor again by a thread 
+	 * of another <code>Application</code>, e.g. to take over the flight of a
+	 * canceled <code>KeyedVaadinWorker</code>. Executors must never run such
+	 * a task in the submitting thread.
+	 */
+	public boolean isResubmitted();
+
+}
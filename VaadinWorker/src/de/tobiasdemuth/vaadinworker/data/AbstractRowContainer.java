@@ -0,0 +1,338 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+/**
+ * <p>
+ * Base-class for read-only, append-only containers of rows. Every row is an
+ * array of values, one per container-property. The ids of the items are the
+ * indexes of their rows as <code>Integer</code>s, so no id-mapping has to be
+ * kept. Items and properties are light-weight views created on demand, which
+ * read the values straight from the row.
+ * </p>
+ *
+ * <p>
+ * Subclasses only provide the number of rows and a row by its index. They
+ * call <code>fireItemSetChange()</code> once after appending any number of
+ * rows. All methods must be called with the lock of the
+ * <code>Application</code> held.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public abstract class AbstractRowContainer implements Container.Indexed,
+		Container.ItemSetChangeNotifier {
+
+	private static final long serialVersionUID = -3806219040734431620L;
+
+	private static final class RowSetChangeEvent implements Container.ItemSetChangeEvent {
+
+		private static final long serialVersionUID = 2436003584386271591L;
+
+		private final Container container;
+
+		private RowSetChangeEvent(Container container) {
+			this.container = container;
+		}
+
+		public Container getContainer() {
+			return container;
+		}
+
+	}
+
+	private final class RowItem implements Item {
+
+		private static final long serialVersionUID = -6007599567768325012L;
+
+		private final int index;
+
+		private RowItem(int index) {
+			this.index = index;
+		}
+
+		public Property getItemProperty(Object id) {
+			Integer column = columns.get(id);
+			return (column != null) ? new RowProperty(index, column) : null;
+		}
+
+		public Collection<?> getItemPropertyIds() {
+			return propertyIds;
+		}
+
+		public boolean addItemProperty(Object id, Property property)
+				throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("The rows are read-only!");
+		}
+
+		public boolean removeItemProperty(Object id)
+				throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("The rows are read-only!");
+		}
+
+	}
+
+	private final class RowProperty implements Property {
+
+		private static final long serialVersionUID = 2019318843125049713L;
+
+		private final int index;
+
+		private final int column;
+
+		private RowProperty(int index, int column) {
+			this.index = index;
+			this.column = column;
+		}
+
+		public Object getValue() {
+			return getRow(index)[column];
+		}
+
+		public void setValue(Object newValue) throws ReadOnlyException,
+				ConversionException {
+			throw new ReadOnlyException("The rows are read-only!");
+		}
+
+		public Class<?> getType() {
+			return types[column];
+		}
+
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		public void setReadOnly(boolean newStatus) {
+			// Always read-only
+		}
+
+		@Override
+		public String toString() {
+			Object value = getValue();
+			return (value != null) ? value.toString() : null;
+		}
+
+	}
+
+	private final List<Object> propertyIds;
+
+	private final Class<?>[] types;
+
+	private final Map<Object, Integer> columns = new HashMap<Object, Integer>();
+
+	private final List<Container.ItemSetChangeListener> listeners =
+			new LinkedList<Container.ItemSetChangeListener>();
+
+	/**
+	 * @param propertyIds the ids of the container-properties, in the order
+	 * of the values of a row.
+	 * @param types the types of the container-properties.
+	 * @throws IllegalArgumentException if the number of ids and types
+	 * differ.
+	 */
+	protected AbstractRowContainer(Object[] propertyIds, Class<?>[] types) {
+		if(propertyIds.length != types.length) {
+			throw new IllegalArgumentException("Every property needs a type!");
+		}
+		this.propertyIds = Collections.unmodifiableList(
+				Arrays.asList(propertyIds.clone()));
+		this.types = types.clone();
+		for(int i = 0; i < propertyIds.length; i++) {
+			columns.put(propertyIds[i], i);
+		}
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the row at the given index, which is between 0 and
+	 * <code>size() - 1</code>. The returned array must not be modified.
+	 */
+	protected abstract Object[] getRow(int index);
+
+	/**
+	 * @return the number of values every row has.
+	 */
+	protected final int getColumnCount() {
+		return types.length;
+	}
+
+	/**
+	 * Checks that the given row has a value for every property.
+	 *
+	 * @throws IllegalArgumentException if it has not.
+	 */
+	protected final void checkRow(Object[] row) {
+		if(row.length != types.length) {
+			throw new IllegalArgumentException("Expected " + types.length +
+					" values, but got " + row.length + "!");
+		}
+	}
+
+	/**
+	 * Informs all listeners that rows have been added or removed.
+	 */
+	protected void fireItemSetChange() {
+		if(listeners.isEmpty()) {
+			return;
+		}
+		Container.ItemSetChangeEvent event = new RowSetChangeEvent(this);
+		// Iterates over a copy, as listeners may remove themselves
+		for(Container.ItemSetChangeListener listener :
+				new ArrayList<Container.ItemSetChangeListener>(listeners)) {
+			listener.containerItemSetChange(event);
+		}
+	}
+
+	public void addListener(Container.ItemSetChangeListener listener) {
+		if(listener != null && !listeners.contains(listener)) {
+			listeners.add(listener);
+		}
+	}
+
+	public void removeListener(Container.ItemSetChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public Item getItem(Object itemId) {
+		return containsId(itemId) ? new RowItem((Integer) itemId) : null;
+	}
+
+	public Collection<?> getContainerPropertyIds() {
+		return propertyIds;
+	}
+
+	/**
+	 * Returns a live view of the ids of all rows, which does not copy
+	 * anything.
+	 */
+	public Collection<?> getItemIds() {
+		return new AbstractList<Integer>() {
+
+			@Override
+			public Integer get(int index) {
+				if(index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException("No row " + index + "!");
+				}
+				return index;
+			}
+
+			@Override
+			public int size() {
+				return AbstractRowContainer.this.size();
+			}
+
+		};
+	}
+
+	public Property getContainerProperty(Object itemId, Object propertyId) {
+		Item item = getItem(itemId);
+		return (item != null) ? item.getItemProperty(propertyId) : null;
+	}
+
+	public Class<?> getType(Object propertyId) {
+		Integer column = columns.get(propertyId);
+		return (column != null) ? types[column] : null;
+	}
+
+	public boolean containsId(Object itemId) {
+		if(!(itemId instanceof Integer)) {
+			return false;
+		}
+		int index = (Integer) itemId;
+		return index >= 0 && index < size();
+	}
+
+	public int indexOfId(Object itemId) {
+		return containsId(itemId) ? (Integer) itemId : -1;
+	}
+
+	public Object getIdByIndex(int index) {
+		return (index >= 0 && index < size()) ? Integer.valueOf(index) : null;
+	}
+
+	public Object nextItemId(Object itemId) {
+		return containsId(itemId) ? getIdByIndex((Integer) itemId + 1) : null;
+	}
+
+	public Object prevItemId(Object itemId) {
+		return containsId(itemId) ? getIdByIndex((Integer) itemId - 1) : null;
+	}
+
+	public Object firstItemId() {
+		return getIdByIndex(0);
+	}
+
+	public Object lastItemId() {
+		return getIdByIndex(size() - 1);
+	}
+
+	public boolean isFirstId(Object itemId) {
+		return containsId(itemId) && (Integer) itemId == 0;
+	}
+
+	public boolean isLastId(Object itemId) {
+		return containsId(itemId) && (Integer) itemId == size() - 1;
+	}
+
+	public Item addItem(Object itemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public Object addItem() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public Object addItemAfter(Object previousItemId)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public Item addItemAfter(Object previousItemId, Object newItemId)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public Object addItemAt(int index) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public Item addItemAt(int index, Object newItemId)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows can only be appended!");
+	}
+
+	public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows cannot be removed!");
+	}
+
+	public boolean removeAllItems() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Rows cannot be removed!");
+	}
+
+	public boolean addContainerProperty(Object propertyId, Class<?> type,
+			Object defaultValue) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("The properties are fixed!");
+	}
+
+	public boolean removeContainerProperty(Object propertyId)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("The properties are fixed!");
+	}
+
+}
@@ -0,0 +1,95 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * <p>
+ * An append-only container for large numbers of rows, e.g. the results of a
+ * <code>VaadinWorker</code>. In contrast to an <code>IndexedContainer</code>,
+ * rows are added in bulk by <code>addRows()</code>, which fires a single
+ * item-set-change-event for the whole batch - so a <code>Table</code>
+ * refreshes once instead of once per row. The values are passed as arrays,
+ * so no property has to be looked up for adding a row.
+ * </p>
+ *
+ * <p>
+ * All methods must be called with the lock of the <code>Application</code>
+ * held. Background-threads hand their rows to a
+ * <code>BulkContainerLoader</code> instead.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class BulkContainer extends AbstractRowContainer {
+
+	private static final long serialVersionUID = 7414383286926004946L;
+
+	private final ArrayList<Object[]> rows = new ArrayList<Object[]>();
+
+	/**
+	 * @param propertyIds the ids of the container-properties, in the order
+	 * of the values of a row.
+	 * @param types the types of the container-properties.
+	 * @throws IllegalArgumentException if the number of ids and types
+	 * differ.
+	 */
+	public BulkContainer(Object[] propertyIds, Class<?>[] types) {
+		super(propertyIds, types);
+	}
+
+	/**
+	 * Appends the given rows and fires one item-set-change-event.
+	 *
+	 * @throws IllegalArgumentException if a row does not have a value for
+	 * every property. No row is added in this case.
+	 */
+	public void addRows(Collection<Object[]> newRows) {
+		if(newRows.isEmpty()) {
+			return;
+		}
+		for(Object[] row : newRows) {
+			checkRow(row);
+		}
+
+		rows.ensureCapacity(rows.size() + newRows.size());
+		rows.addAll(newRows);
+		fireItemSetChange();
+	}
+
+	/**
+	 * Appends a single row and fires an item-set-change-event. Prefer
+	 * <code>addRows()</code> for adding many rows.
+	 *
+	 * @return the id of the new item.
+	 * @throws IllegalArgumentException if the row does not have a value for
+	 * every property.
+	 */
+	public Object addRow(Object... values) {
+		addRows(Collections.singletonList(values));
+		return lastItemId();
+	}
+
+	/**
+	 * Removes all rows and fires one item-set-change-event.
+	 */
+	@Override
+	public boolean removeAllItems() {
+		rows.clear();
+		rows.trimToSize();
+		fireItemSetChange();
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return rows.size();
+	}
+
+	@Override
+	protected Object[] getRow(int index) {
+		return rows.get(index);
+	}
+
+}
@@ -0,0 +1,119 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.Application;
+
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
+
+/**
+ * <p>
+ * Feeds a <code>BulkContainer</code> from a background-thread. Rows passed
+ * to <code>add()</code> are buffered without any locking and appended to the
+ * container in one batch by the next request-thread draining the
+ * <code>UIActionQueue</code> of the <code>Application</code>. The container
+ * therefore fires one item-set-change-event per request at most, no matter
+ * how many rows arrive in between.
+ * </p>
+ *
+ * <p>
+ * Call <code>flush()</code> from <code>updateUI()</code> in order to append
+ * the rows still buffered when the work is done.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class BulkContainerLoader {
+
+	private final BulkContainer container;
+
+	private final Application app;
+
+	private final Queue<Object[]> pending =
+			new ConcurrentLinkedQueue<Object[]>();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Runnable delivery = new Runnable() {
+
+		public void run() {
+			scheduled.set(false);
+			flush();
+		}
+
+	};
+
+	/**
+	 * @param container the container to append the rows to.
+	 * @param app the <code>Application</code> whose lock guards the container.
+	 * @throws NullPointerException if one of the arguments is null.
+	 */
+	public BulkContainerLoader(BulkContainer container, Application app) {
+		if(container == null || app == null) {
+			throw new NullPointerException("Container and Application are not " +
+					"allowed to be null!");
+		}
+		this.container = container;
+		this.app = app;
+	}
+
+	/**
+	 * Buffers a row for appending. This method never blocks and may be called
+	 * from any thread.
+	 *
+	 * @throws IllegalArgumentException if the row does not have a value for
+	 * every property of the container.
+	 */
+	public void add(Object... row) {
+		container.checkRow(row);
+		pending.add(row);
+		schedule();
+	}
+
+	/**
+	 * Buffers the given rows for appending. This method never blocks and may
+	 * be called from any thread.
+	 *
+	 * @throws IllegalArgumentException if a row does not have a value for
+	 * every property of the container.
+	 */
+	public void addAll(Collection<Object[]> rows) {
+		for(Object[] row : rows) {
+			container.checkRow(row);
+		}
+		pending.addAll(rows);
+		schedule();
+	}
+
+	private void schedule() {
+		if(scheduled.compareAndSet(false, true)) {
+			UIActionQueue.get(app).post(delivery);
+		}
+	}
+
+	/**
+	 * Appends all buffered rows to the container. Must be called with the lock
+	 * of the <code>Application</code> held.
+	 */
+	public void flush() {
+		List<Object[]> batch = new ArrayList<Object[]>();
+		Object[] row;
+		while((row = pending.poll()) != null) {
+			batch.add(row);
+		}
+		container.addRows(batch);
+	}
+
+	/**
+	 * @return the container the rows are appended to.
+	 */
+	public BulkContainer getContainer() {
+		return container;
+	}
+
+}
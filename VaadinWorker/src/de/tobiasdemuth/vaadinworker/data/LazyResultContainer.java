@@ -0,0 +1,151 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import com.vaadin.Application;
+
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * <p>
+ * A container reading its rows on demand from the <code>ResultBuffer</code>
+ * a worker is writing to. Nothing is copied: A <code>Table</code> fetches 
+ * only the rows of its visible page, straight from the buffer.
+ * </p>
+ * 
+ * <p>
+ * The size of the container only changes during a request, so it stays
+ * stable while a request is handled. The container registers itself as a
+ * <code>PollListener</code> of the <code>UIActionQueue</code> and fires an
+ * item-set-change-event whenever the buffer has grown since the last 
+ * request - e.g. the last poll of the <code>BackgroundExecutor</code>. Once
+ * the buffer is complete and all its rows are known, it unregisters itself.
+ * A container created for the worker writing the buffer also unregisters 
+ * itself once the worker has finished or failed, or has been canceled 
+ * before it has been started, even if the buffer is never completed. A worker
+ * canceled while running may still append rows until it returns.
+ * </p>
+ * 
+ * <p>
+ * A <code>SpillingResultBuffer</code> is closed at the latest when the
+ * <code>Application</code> is closed or its session ends.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class LazyResultContainer extends AbstractRowContainer implements 
+		UIActionQueue.PollListener {
+	
+	private static final long serialVersionUID = -1645394834981512266L;
+
+	private final ResultBuffer buffer;
+	
+	private final Application app;
+	
+	// The worker writing the buffer, if known
+	private final VaadinWorker worker;
+	
+	private int size;
+	
+	/**
+	 * @param buffer the buffer to read the rows from.
+	 * @param propertyIds the ids of the container-properties, in the order
+	 * of the values of a row.
+	 * @param types the types of the container-properties.
+	 * @param app the <code>Application</code> whose requests refresh the size.
+	 * @throws NullPointerException if <code>buffer</code> or <code>app</code>
+	 * is null.
+	 * @throws IllegalArgumentException if the number of ids and types 
+	 * differ.
+	 */
+	public LazyResultContainer(ResultBuffer buffer, Object[] propertyIds, 
+			Class<?>[] types, Application app) {
+		this(buffer, propertyIds, types, app, null);
+	}
+	
+	/**
+	 * @param buffer the buffer to read the rows from.
+	 * @param propertyIds the ids of the container-properties, in the order
+	 * of the values of a row.
+	 * @param types the types of the container-properties.
+	 * @param worker the worker writing to the buffer. Its 
+	 * <code>Application</code>'s requests refresh the size.
+	 * @throws NullPointerException if <code>buffer</code> or 
+	 * <code>worker</code> is null.
+	 * @throws IllegalArgumentException if the number of ids and types 
+	 * differ.
+	 */
+	public LazyResultContainer(ResultBuffer buffer, Object[] propertyIds, 
+			Class<?>[] types, VaadinWorker worker) {
+		this(buffer, propertyIds, types, 
+				(worker != null) ? worker.getApplication() : null, worker);
+	}
+	
+	private LazyResultContainer(ResultBuffer buffer, Object[] propertyIds, 
+			Class<?>[] types, Application app, VaadinWorker worker) {
+		super(propertyIds, types);
+		if(buffer == null || app == null) {
+			throw new NullPointerException("Buffer and Application are not " +
+					"allowed to be null!");
+		}
+		this.buffer = buffer;
+		this.app = app;
+		this.worker = worker;
+		this.size = buffer.size();
+		
+		UIActionQueue queue = UIActionQueue.get(app);
+		if(buffer instanceof SpillingResultBuffer) {
+			// Deletes the spilled rows even if nobody closes the buffer
+			((SpillingResultBuffer) buffer).closeWith(queue);
+		}
+		if(!buffer.isComplete()) {
+			queue.addListener(this);
+		}
+	}
+	
+	/**
+	 * Takes over the current size of the buffer and fires an 
+	 * item-set-change-event if it has changed. Must be called with the lock
+	 * of the <code>Application</code> held.
+	 * 
+	 * @return true if the size has changed.
+	 */
+	public boolean refresh() {
+		int current = buffer.size();
+		if(current == size) {
+			return false;
+		}
+		size = current;
+		fireItemSetChange();
+		return true;
+	}
+	
+	public void polled() {
+		// The completion has to be checked first, rows might be appended 
+		// right until then
+		boolean complete = buffer.isComplete() || (worker != null && 
+				(worker.isFinished() || 
+				(worker.isCanceled() && !worker.isStarted())));
+		refresh();
+		if(complete) {
+			UIActionQueue.get(app).removeListener(this);
+		}
+	}
+	
+	/**
+	 * @return the buffer the rows are read from.
+	 */
+	public ResultBuffer getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	protected Object[] getRow(int index) {
+		return buffer.get(index);
+	}
+
+}
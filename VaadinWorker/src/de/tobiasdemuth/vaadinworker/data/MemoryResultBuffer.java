@@ -0,0 +1,69 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A <code>ResultBuffer</code> keeping the rows in memory. The rows are stored
+ * in fixed-size chunks, so growing the buffer never copies any row. Readers
+ * do not need any lock: The size is published after the row has been stored.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class MemoryResultBuffer implements ResultBuffer, Serializable {
+	
+	private static final long serialVersionUID = 5523019471602953216L;
+
+	private static final int CHUNK_SHIFT = 10;
+	
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	private volatile Object[][][] chunks = new Object[4][][];
+	
+	private volatile int size = 0;
+	
+	private volatile boolean complete = false;
+	
+	public synchronized void append(Object[] row) throws IllegalStateException {
+		if(complete) {
+			throw new IllegalStateException("The buffer has been completed!");
+		}
+		
+		final int index = size;
+		final int chunk = index >>> CHUNK_SHIFT;
+		Object[][][] directory = chunks;
+		if(chunk == directory.length) {
+			// Copies the references to the chunks only
+			directory = Arrays.copyOf(directory, directory.length * 2);
+			chunks = directory;
+		}
+		if(directory[chunk] == null) {
+			directory[chunk] = new Object[CHUNK_SIZE][];
+		}
+		directory[chunk][index & CHUNK_MASK] = row;
+		
+		size = index + 1; // Publishes the row
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Object[] get(int index) throws IndexOutOfBoundsException {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("No row " + index + "!");
+		}
+		return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public void complete() {
+		complete = true;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+}
@@ -0,0 +1,52 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+/**
+ * <p>
+ * An append-only buffer of result-rows, written by a background-thread and 
+ * read by the UI at the same time. Every row is an array of values, just as
+ * in an <code>AbstractRowContainer</code>. A <code>LazyResultContainer</code>
+ * reads the rows straight from the buffer, so the results are kept only once.
+ * </p>
+ * 
+ * <p>
+ * Implementations must allow one thread to append rows while other threads
+ * read the rows appended before. A row becomes visible to readers with the
+ * size including it.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public interface ResultBuffer {
+	
+	/**
+	 * Appends a row. The row must not be modified afterwards.
+	 * 
+	 * @throws IllegalStateException if the buffer has been completed.
+	 */
+	public void append(Object[] row) throws IllegalStateException;
+	
+	/**
+	 * Returns the number of rows appended so far. May be called from any 
+	 * thread.
+	 */
+	public int size();
+	
+	/**
+	 * Returns the row at the given index. May be called from any thread.
+	 * 
+	 * @throws IndexOutOfBoundsException if <code>index</code> is negative or
+	 * not less than <code>size()</code>.
+	 */
+	public Object[] get(int index) throws IndexOutOfBoundsException;
+	
+	/**
+	 * Tells the readers that no more rows will be appended.
+	 */
+	public void complete();
+	
+	/**
+	 * Returns true if no more rows will be appended.
+	 */
+	public boolean isComplete();
+
+}
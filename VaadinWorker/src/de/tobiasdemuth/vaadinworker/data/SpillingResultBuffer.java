@@ -0,0 +1,520 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
+
+/**
+ * <p>
+ * A <code>ResultBuffer</code> keeping only a bounded window of rows in memory.
+ * The rows are appended in chunks of a fixed size. Once more chunks than
+ * the window allows are in memory, the oldest one is encoded by a
+ * <code>Codec</code> and written to a temporary file. Reading a row of a
+ * spilled chunk decodes the whole chunk; the last few decoded chunks are
+ * cached, so reading a page of a <code>Table</code> or streaming all rows
+ * in order decodes every chunk once.
+ * </p>
+ *
+ * <p>
+ * Rows are appended from <code>runInBackground()</code> and may be read by
+ * any thread at the same time. The buffer must be closed when the results
+ * are no longer needed, which deletes the temporary file. A buffer handed
+ * to <code>closeWith(UIActionQueue)</code> - as every
+ * <code>LazyResultContainer</code> does - is closed at the latest when the
+ * <code>Application</code> is closed or its session ends.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class SpillingResultBuffer implements ResultBuffer, Closeable {
+
+	/**
+	 * Writes rows to and reads rows from the temporary file.
+	 */
+	public static interface Codec {
+
+		/**
+		 * Checks that the row can be written, so an unsupported value is
+		 * rejected when it is appended instead of when its chunk is spilled.
+		 * Accepts every row by default.
+		 *
+		 * @throws IllegalArgumentException if the row cannot be written.
+		 */
+		public default void checkRow(Object[] row) throws IllegalArgumentException {
+			// Everything is written by default
+		}
+
+		public void writeRow(DataOutput out, Object[] row) throws IOException;
+
+		public Object[] readRow(DataInput in) throws IOException;
+
+	}
+
+	/**
+	 * <p>
+	 * Writes every value with a one-byte tag for its type. Supports null,
+	 * <code>String</code>, <code>Integer</code>, <code>Long</code>,
+	 * <code>Double</code>, <code>Boolean</code>, <code>BigInteger</code>,
+	 * <code>BigDecimal</code> and <code>Date</code>.
+	 * </p>
+	 */
+	public static final Codec DEFAULT_CODEC = new Codec() {
+
+		private static final byte NULL = 0;
+		private static final byte STRING = 1;
+		private static final byte INTEGER = 2;
+		private static final byte LONG = 3;
+		private static final byte DOUBLE = 4;
+		private static final byte BOOLEAN = 5;
+		private static final byte BIG_INTEGER = 6;
+		private static final byte BIG_DECIMAL = 7;
+		private static final byte DATE = 8;
+
+		public void checkRow(Object[] row) throws IllegalArgumentException {
+			for(Object value : row) {
+				if(value != null && !(value instanceof String ||
+						value instanceof Integer || value instanceof Long ||
+						value instanceof Double || value instanceof Boolean ||
+						value instanceof BigInteger || value instanceof BigDecimal ||
+						value instanceof Date)) {
+					throw new IllegalArgumentException("Cannot write values of " +
+							value.getClass() + "!");
+				}
+			}
+		}
+
+		public void writeRow(DataOutput out, Object[] row) throws IOException {
+			out.writeShort(row.length);
+			for(Object value : row) {
+				if(value == null) {
+					out.writeByte(NULL);
+				} else if(value instanceof String) {
+					out.writeByte(STRING);
+					writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+				} else if(value instanceof Integer) {
+					out.writeByte(INTEGER);
+					out.writeInt((Integer) value);
+				} else if(value instanceof Long) {
+					out.writeByte(LONG);
+					out.writeLong((Long) value);
+				} else if(value instanceof Double) {
+					out.writeByte(DOUBLE);
+					out.writeDouble((Double) value);
+				} else if(value instanceof Boolean) {
+					out.writeByte(BOOLEAN);
+					out.writeBoolean((Boolean) value);
+				} else if(value instanceof BigInteger) {
+					out.writeByte(BIG_INTEGER);
+					writeBytes(out, ((BigInteger) value).toByteArray());
+				} else if(value instanceof BigDecimal) {
+					out.writeByte(BIG_DECIMAL);
+					out.writeInt(((BigDecimal) value).scale());
+					writeBytes(out, ((BigDecimal) value).unscaledValue().toByteArray());
+				} else if(value instanceof Date) {
+					out.writeByte(DATE);
+					out.writeLong(((Date) value).getTime());
+				} else {
+					throw new IOException("Cannot write values of " +
+							value.getClass() + "!");
+				}
+			}
+		}
+
+		public Object[] readRow(DataInput in) throws IOException {
+			Object[] row = new Object[in.readUnsignedShort()];
+			for(int i = 0; i < row.length; i++) {
+				byte tag = in.readByte();
+				switch(tag) {
+				case NULL:
+					break;
+				case STRING:
+					row[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+					break;
+				case INTEGER:
+					row[i] = in.readInt();
+					break;
+				case LONG:
+					row[i] = in.readLong();
+					break;
+				case DOUBLE:
+					row[i] = in.readDouble();
+					break;
+				case BOOLEAN:
+					row[i] = in.readBoolean();
+					break;
+				case BIG_INTEGER:
+					row[i] = new BigInteger(readBytes(in));
+					break;
+				case BIG_DECIMAL:
+					int scale = in.readInt();
+					row[i] = new BigDecimal(new BigInteger(readBytes(in)), scale);
+					break;
+				case DATE:
+					row[i] = new Date(in.readLong());
+					break;
+				default:
+					throw new IOException("Unknown tag " + tag + "!");
+				}
+			}
+			return row;
+		}
+
+		private void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private byte[] readBytes(DataInput in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return bytes;
+		}
+
+	};
+
+	private static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private static final int DEFAULT_MEMORY_CHUNKS = 4;
+
+	private static final int CACHED_CHUNKS = 4;
+
+	private static final class Chunk {
+
+		// null once the chunk has been spilled
+		private Object[][] rows;
+
+		private long position;
+
+		private int length;
+
+		private Chunk(int size) {
+			this.rows = new Object[size][];
+		}
+
+	}
+
+	/**
+	 * Closes the buffer once the <code>UIActionQueue</code> is closed, or
+	 * just deletes the file if the buffer is gone by then.
+	 */
+	private static final class Closer implements UIActionQueue.CloseListener {
+
+		private static final long serialVersionUID = -2871043376589204164L;
+
+		// Weak, so an abandoned buffer is not kept until the session ends
+		private final transient WeakReference<SpillingResultBuffer> buffer;
+
+		// null until the first chunk has been spilled
+		private volatile String path;
+
+		private Closer(SpillingResultBuffer buffer) {
+			this.buffer = new WeakReference<SpillingResultBuffer>(buffer);
+		}
+
+		public void queueClosed() {
+			SpillingResultBuffer buffer = (this.buffer != null) ?
+					this.buffer.get() : null;
+			try {
+				if(buffer != null) {
+					buffer.close();
+				}
+				else if(path != null) {
+					Files.deleteIfExists(Paths.get(path));
+				}
+			} catch (IOException e) {
+				// Nothing we can do about it
+			}
+		}
+
+	}
+
+	private final Codec codec;
+
+	private final int chunkSize;
+
+	private final int memoryChunks;
+
+	// All following fields are guarded by this
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	private int firstInMemory = 0;
+
+	// Not a FileChannel, which an interrupt of any reading thread would close
+	private RandomAccessFile file;
+
+	private Path path;
+
+	private UIActionQueue queue;
+
+	private Closer closer;
+
+	// Guards the file-pointer of file
+	private final Object fileLock = new Object();
+
+	private long filePosition = 0;
+
+	// Volatile, so readers may check it with only the fileLock held
+	private volatile boolean closed = false;
+
+	private final Map<Integer, Object[][]> decoded =
+			new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = -4178120345396338702L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+			return size() > CACHED_CHUNKS;
+		}
+
+	};
+
+	private volatile int size = 0;
+
+	private volatile boolean complete = false;
+
+	/**
+	 * Creates a buffer keeping four chunks of 1024 rows in memory, which
+	 * uses the <code>DEFAULT_CODEC</code>.
+	 */
+	public SpillingResultBuffer() {
+		this(DEFAULT_CODEC, DEFAULT_CHUNK_SIZE, DEFAULT_MEMORY_CHUNKS);
+	}
+
+	/**
+	 * @param codec the codec to write the spilled rows with.
+	 * @param chunkSize the number of rows spilled at once.
+	 * @param memoryChunks the number of chunks kept in memory, including the
+	 * one being appended to.
+	 * @throws NullPointerException if <code>codec</code> is null.
+	 * @throws IllegalArgumentException if <code>chunkSize</code> or
+	 * <code>memoryChunks</code> is less than 1.
+	 */
+	public SpillingResultBuffer(Codec codec, int chunkSize, int memoryChunks) {
+		if(codec == null) {
+			throw new NullPointerException("Codec is not allowed to be null!");
+		}
+		if(chunkSize < 1 || memoryChunks < 1) {
+			throw new IllegalArgumentException("Chunk-size and number of " +
+					"chunks in memory must be positive!");
+		}
+		this.codec = codec;
+		this.chunkSize = chunkSize;
+		this.memoryChunks = memoryChunks;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the codec cannot write the row.
+	 * @throws UncheckedIOException if a chunk could not be spilled. The row
+	 * has not been appended then and appending it may be retried.
+	 */
+	public synchronized void append(Object[] row) throws IllegalStateException {
+		if(closed || complete) {
+			throw new IllegalStateException("The buffer has been completed!");
+		}
+		codec.checkRow(row);
+
+		final int index = size;
+		if(index % chunkSize == 0) {
+			// Makes room for the new chunk first, so a failing spill leaves
+			// everything as it was
+			while(chunks.size() + 1 - firstInMemory > memoryChunks) {
+				spill(chunks.get(firstInMemory));
+				firstInMemory++;
+			}
+			chunks.add(new Chunk(chunkSize));
+		}
+		chunks.get(index / chunkSize).rows[index % chunkSize] = row;
+
+		size = index + 1;
+	}
+
+	private void spill(Chunk chunk) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			for(Object[] row : chunk.rows) {
+				codec.writeRow(out, row);
+			}
+			out.flush();
+
+			if(file == null) {
+				Path created = Files.createTempFile("vaadinworker-", ".spill");
+				file = new RandomAccessFile(created.toFile(), "rw");
+				path = created;
+				if(closer != null) {
+					closer.path = created.toString();
+				}
+			}
+			synchronized(fileLock) {
+				file.seek(filePosition);
+				file.write(bytes.toByteArray());
+			}
+
+			chunk.position = filePosition;
+			chunk.length = bytes.size();
+			chunk.rows = null;
+			filePosition += bytes.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not spill rows!", e);
+		}
+	}
+
+	/**
+	 * Closes the buffer at the latest when the given queue is closed, i.e.
+	 * when its <code>Application</code> is closed or its session ends. Only
+	 * the first queue given is taken into account.
+	 *
+	 * @throws NullPointerException if <code>queue</code> is null.
+	 */
+	public void closeWith(UIActionQueue queue) {
+		if(queue == null) {
+			throw new NullPointerException("Queue is not allowed to be null!");
+		}
+		Closer closer;
+		synchronized(this) {
+			if(this.queue != null || closed) {
+				return;
+			}
+			closer = new Closer(this);
+			if(path != null) {
+				closer.path = path.toString();
+			}
+			this.queue = queue;
+			this.closer = closer;
+		}
+		// Outside the lock, a closed queue closes the buffer right away
+		queue.addListener(closer);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @throws IllegalStateException if the buffer has been closed.
+	 * @throws UncheckedIOException if the row could not be read back.
+	 */
+	public Object[] get(int index) throws IndexOutOfBoundsException {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("No row " + index + "!");
+		}
+
+		final int chunkIndex = index / chunkSize;
+		final RandomAccessFile file;
+		final long position;
+		final int length;
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("The buffer has been closed!");
+			}
+			Chunk chunk = chunks.get(chunkIndex);
+			if(chunk.rows != null) {
+				return chunk.rows[index % chunkSize];
+			}
+			Object[][] rows = decoded.get(chunkIndex);
+			if(rows != null) {
+				return rows[index % chunkSize];
+			}
+			file = this.file;
+			position = chunk.position;
+			length = chunk.length;
+		}
+
+		// Reads and decodes without the lock, so appending goes on meanwhile.
+		// The file is only closed with the fileLock held.
+		Object[][] rows = read(file, position, length);
+		synchronized(this) {
+			decoded.put(chunkIndex, rows);
+		}
+		return rows[index % chunkSize];
+	}
+
+	private Object[][] read(RandomAccessFile file, long position, int length) {
+		try {
+			byte[] bytes = new byte[length];
+			synchronized(fileLock) {
+				if(closed) {
+					throw new IllegalStateException("The buffer has been closed!");
+				}
+				file.seek(position);
+				file.readFully(bytes);
+			}
+
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(bytes));
+			Object[][] rows = new Object[chunkSize][];
+			for(int i = 0; i < rows.length; i++) {
+				rows[i] = codec.readRow(in);
+			}
+			return rows;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read spilled rows!", e);
+		}
+	}
+
+	public void complete() {
+		complete = true;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Drops all rows and deletes the temporary file. Rows cannot be read
+	 * afterwards.
+	 */
+	public void close() throws IOException {
+		RandomAccessFile file;
+		Path path;
+		UIActionQueue queue;
+		Closer closer;
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			complete = true;
+			chunks.clear();
+			decoded.clear();
+			file = this.file;
+			path = this.path;
+			queue = this.queue;
+			closer = this.closer;
+			this.file = null;
+			this.queue = null;
+			this.closer = null;
+		}
+		if(closer != null) {
+			queue.removeListener(closer);
+		}
+		if(file != null) {
+			synchronized(fileLock) {
+				file.close();
+			}
+			Files.deleteIfExists(path);
+		}
+	}
+
+}
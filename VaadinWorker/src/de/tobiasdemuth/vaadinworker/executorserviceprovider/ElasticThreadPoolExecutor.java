@@ -0,0 +1,160 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A <code>ThreadPoolExecutor</code> that grows up to its maximum size before
+ * it starts to queue tasks and shrinks again once its threads have been idle
+ * for the keep-alive-time.
+ * </p>
+ *
+ * <p>
+ * A plain <code>ThreadPoolExecutor</code> with an unbounded queue never
+ * starts more than its core threads, while one with a
+ * <code>SynchronousQueue</code> rejects tasks as soon as all threads are
+ * busy. This one offers a task to its queue only if an idle thread is 
+ * going to take it or no new thread can be started, and falls back to the 
+ * queue instead of rejecting when the maximum has been reached concurrently.
+ * Threads started for a burst are idle afterwards and time out again.
+ * </p>
+ *
+ * <p>
+ * The queue counts the threads and the idle ones itself: A thread is idle
+ * while it waits for a task in the queue. <code>getPoolSize()</code> and 
+ * <code>getActiveCount()</code> would take the main lock of the executor 
+ * on every submit.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class ElasticThreadPoolExecutor extends ThreadPoolExecutor {
+
+	private static class GrowFirstQueue extends LinkedBlockingQueue<Runnable> {
+
+		private static final long serialVersionUID = 1L;
+
+		private transient ElasticThreadPoolExecutor executor;
+
+		// The threads started by the executor and not terminated yet
+		private final AtomicInteger threads = new AtomicInteger();
+
+		// The threads waiting for a task in take() or poll()
+		private final AtomicInteger idle = new AtomicInteger();
+
+		@Override
+		public boolean offer(Runnable task) {
+			final ElasticThreadPoolExecutor executor = this.executor;
+			if(executor != null
+					&& threads.get() < executor.getMaximumPoolSize()
+					&& idle.get() <= size()) {
+				// No idle thread is left for the task, so this makes the 
+				// executor start another one
+				return false;
+			}
+			return super.offer(task);
+		}
+
+		boolean enqueue(Runnable task) {
+			return super.offer(task);
+		}
+
+		@Override
+		public Runnable take() throws InterruptedException {
+			idle.incrementAndGet();
+			try {
+				return super.take();
+			}
+			finally {
+				idle.decrementAndGet();
+			}
+		}
+
+		@Override
+		public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+			idle.incrementAndGet();
+			try {
+				return super.poll(timeout, unit);
+			}
+			finally {
+				idle.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Wraps the factory, so every thread is counted while it runs.
+		 */
+		private ThreadFactory counting(final ThreadFactory threadFactory) {
+			return new ThreadFactory() {
+
+				public Thread newThread(final Runnable worker) {
+					return threadFactory.newThread(new Runnable() {
+
+						public void run() {
+							threads.incrementAndGet();
+							try {
+								worker.run();
+							}
+							finally {
+								threads.decrementAndGet();
+							}
+						}
+
+					});
+				}
+
+			};
+		}
+
+	}
+
+	private static final RejectedExecutionHandler ENQUEUE = new RejectedExecutionHandler() {
+
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException("The executor is shut down!");
+			}
+			((GrowFirstQueue) executor.getQueue()).enqueue(task);
+		}
+
+	};
+
+	/**
+	 * Creates a new <code>ElasticThreadPoolExecutor</code>.
+	 *
+	 * @param corePoolSize the number of threads kept even if idle, unless
+	 * <code>allowCoreThreadTimeOut(true)</code> is called
+	 * @param maximumPoolSize the maximum number of threads
+	 * @param keepAliveTime the time an idle thread waits for new tasks before
+	 * it terminates
+	 * @param unit the unit of <code>keepAliveTime</code>
+	 * @param threadFactory the factory to create new threads with
+	 */
+	public ElasticThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+			long keepAliveTime, TimeUnit unit, ThreadFactory threadFactory) {
+		this(corePoolSize, maximumPoolSize, keepAliveTime, unit, threadFactory, 
+				new GrowFirstQueue());
+	}
+	
+	private ElasticThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+			long keepAliveTime, TimeUnit unit, ThreadFactory threadFactory, 
+			GrowFirstQueue queue) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit,
+				queue, queue.counting(threadFactory), ENQUEUE);
+		queue.executor = this;
+	}
+	
+	/**
+	 * Returns the number of threads waiting for a task.
+	 */
+	int getIdleCount() {
+		return ((GrowFirstQueue) getQueue()).idle.get();
+	}
+
+}
@@ -2,11 +2,19 @@ package de.tobiasdemuth.vaadinworker.executorserviceprovider;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+
+import com.vaadin.terminal.gwt.server.WebApplicationContext;
+
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
 
 /**
  * <p>
@@ -25,13 +33,53 @@ import javax.servlet.ServletContextListener;
  * <code>
  * <pre>
  * <context-param>
- *   <param-name>threadCount</param-name>
- *   <param-value>20</param-value>
+ *   <param-name>executorType</param-name>
+ *   <param-value>pooled</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>corePoolSize</param-name>
+ *   <param-value>4</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>maxPoolSize</param-name>
+ *   <param-value>8</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>keepAliveSeconds</param-name>
+ *   <param-value>60</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>prestartCoreThreads</param-name>
+ *   <param-value>false</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>parallelism</param-name>
+ *   <param-value>4</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>virtualThreadLimit</param-name>
+ *   <param-value>0</param-value>
  * </context-param>
  * <context-param>
  *   <param-name>gracefulShutdown</param-name>
  *   <param-value>false</param-value>
  * </context-param>
+ * <context-param>
+ *   <param-name>queueCapacity</param-name>
+ *   <param-value>0</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>rejectionPolicy</param-name>
+ *   <param-value>abort</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>maxTasksPerSession</param-name>
+ *   <param-value>0</param-value>
+ * </context-param>
+ * <context-param>
+ *   <param-name>priorityAgingInterval</param-name>
+ *   <param-value>5000</param-value>
+ * </context-param>
  * 
  * <listener>
  *   <listener-class>de.tobiasdemuth.vaadinworker.executorserviceprovider.ExecutorServiceContextListener</listener-class>
@@ -46,9 +94,78 @@ import javax.servlet.ServletContextListener;
  * </p>
  * 
  * <p>
- * You can control the number of used threads using the initialization-parameter
- * <code>threadCount</code>. If it is not set or an invalid value is used, only 
- * one thread will be created by the <code>ExecutorService</code>.
+ * The pool grows and shrinks with the load (see 
+ * <code>ElasticThreadPoolExecutor</code>). It starts up to 
+ * <code>corePoolSize</code> threads right away and up to 
+ * <code>maxPoolSize</code> threads before it starts to queue tasks. Threads
+ * that have been idle for <code>keepAliveSeconds</code> (default 60) are 
+ * released, so an idle application does not keep any parked threads. Unless
+ * set, <code>corePoolSize</code> defaults to the number of processors the 
+ * JVM may use - which honors the CPU-quota of a container - and 
+ * <code>maxPoolSize</code> to twice that number. If 
+ * <code>prestartCoreThreads</code> is set to true, the core threads are 
+ * started with the application and kept even if idle.
+ * </p>
+ * 
+ * <p>
+ * The former parameter <code>threadCount</code> is still supported and sets
+ * both <code>corePoolSize</code> and <code>maxPoolSize</code>, unless these
+ * are set explicitly.
+ * </p>
+ * 
+ * <p>
+ * Setting the parameter <code>executorType</code> to <code>virtual</code> 
+ * replaces the pool of platform-threads by a virtual thread per task (see 
+ * <code>ExecutorType</code>). This suits workers that mostly block in I/O,
+ * as those do not occupy a platform-thread while waiting. 
+ * The pool-size-parameters are ignored in this mode. Instead the parameter 
+ * <code>virtualThreadLimit</code> can cap the number of concurrently running
+ * tasks, e.g. to protect a database-pool. If it is not set or not positive, 
+ * there is no such cap. As a virtual thread waiting for the lock of an 
+ * <code>Application</code> pins its carrier-thread, the workers dispatch 
+ * their progress without taking the lock in this mode.
+ * </p>
+ * 
+ * <p>
+ * The <code>executorType</code> <code>forkJoin</code> runs all tasks in a 
+ * work-stealing <code>ForkJoinPool</code> with <code>parallelism</code> 
+ * threads, which defaults to the number of available processors. 
+ * <code>ParallelVaadinWorker</code>s fork their subtasks into this pool, so
+ * a single CPU-bound worker may use every core. At most 
+ * <code>parallelism</code> workers are started concurrently; the 
+ * pool-size-parameters are ignored in this mode.
+ * </p>
+ * 
+ * <p>
+ * Tasks waiting for a free thread are kept in a work-queue, whose capacity
+ * is limited by the parameter <code>queueCapacity</code>. If it is not set or
+ * not positive, the queue is unbounded. Note that every queued task keeps its
+ * whole <code>Application</code> reachable, so a bounded queue protects the
+ * heap during traffic-spikes. What happens to tasks that do not fit into a 
+ * full queue is controlled by the parameter <code>rejectionPolicy</code>: 
+ * <code>abort</code> (default) rejects them, <code>callerRuns</code> runs 
+ * them in the submitting thread - unless it is a request-thread holding the
+ * lock of the <code>Application</code>, which rejects them as well - and 
+ * <code>dropOldestPerSession</code> drops the oldest of the least important
+ * queued tasks of the same <code>Application</code> in their favor - but 
+ * never one of a higher <code>Priority</code>. See 
+ * <code>RejectionPolicy</code> for details.
+ * </p>
+ * 
+ * <p>
+ * All <code>Application</code>s share the threads fairly: Every 
+ * <code>Application</code> has a work-queue of its own and the queues are 
+ * served round-robin (see <code>FairSessionExecutor</code>). The parameter
+ * <code>maxTasksPerSession</code> additionally limits the number of tasks 
+ * running concurrently for a single <code>Application</code>. If it is not 
+ * set or not positive, there is no such limit.
+ * </p>
+ * 
+ * <p>
+ * Waiting tasks are run by the <code>Priority</code> they have been 
+ * submitted with. The parameter <code>priorityAgingInterval</code> controls
+ * after how many milliseconds a waiting task is promoted to the next higher
+ * class. It defaults to 5000.
  * </p>
  * 
  * <p>
@@ -67,6 +184,14 @@ import javax.servlet.ServletContextListener;
  * </p>
  * 
  * <p>
+ * As an <code>HttpSessionAttributeListener</code> it also hooks the 
+ * <code>UIActionQueue</code>s of every session into the request-handling of 
+ * Vaadin, as soon as Vaadin stores its <code>WebApplicationContext</code> in
+ * the session. No thread holds the lock of an <code>Application</code> at 
+ * that time (see <code>UIActionQueue.install()</code>).
+ * </p>
+ * 
+ * <p>
  * Credits for the idea and even large parts of the implementation go to
  * StackOverflow-user "nos" for his excellent answer in this 
  * <a href="http://stackoverflow.com/questions/4907502/
@@ -75,7 +200,8 @@ import javax.servlet.ServletContextListener;
  *
  * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
  */
-public class ExecutorServiceContextListener implements ServletContextListener {
+public class ExecutorServiceContextListener implements ServletContextListener,
+		HttpSessionAttributeListener {
 	
 	private static class DaemonThreadFactory implements ThreadFactory {
 
@@ -98,16 +224,77 @@ public class ExecutorServiceContextListener implements ServletContextListener {
 		}
 	}
 
+	/**
+	 * The name of the "executorType"-initialization-parameter.
+	 */
+	public static final String EXECUTOR_TYPE_INIT_PARAM = "executorType";
+	
 	/**
 	 * The name of the "threadCount"-initialization-parameter.
 	 */
 	public static final String THREAD_COUNT_INIT_PARAM = "threadCount";
 	
+	/**
+	 * The name of the "corePoolSize"-initialization-parameter.
+	 */
+	public static final String CORE_POOL_SIZE_INIT_PARAM = "corePoolSize";
+	
+	/**
+	 * The name of the "maxPoolSize"-initialization-parameter.
+	 */
+	public static final String MAX_POOL_SIZE_INIT_PARAM = "maxPoolSize";
+	
+	/**
+	 * The name of the "keepAliveSeconds"-initialization-parameter.
+	 */
+	public static final String KEEP_ALIVE_SECONDS_INIT_PARAM = "keepAliveSeconds";
+	
+	/**
+	 * The name of the "prestartCoreThreads"-initialization-parameter.
+	 */
+	public static final String PRESTART_CORE_THREADS_INIT_PARAM = "prestartCoreThreads";
+	
+	/**
+	 * The name of the "parallelism"-initialization-parameter.
+	 */
+	public static final String PARALLELISM_INIT_PARAM = "parallelism";
+	
+	/**
+	 * The name of the "virtualThreadLimit"-initialization-parameter.
+	 */
+	public static final String VIRTUAL_THREAD_LIMIT_INIT_PARAM = "virtualThreadLimit";
+	
 	/**
 	 * The name of the "gracefulShutdown"-initialization-parameter.
 	 */
 	public static final String GRACEFUL_SHUTDOWN_INIT_PARAM = "gracefulShutdown";
 	
+	/**
+	 * The name of the "queueCapacity"-initialization-parameter.
+	 */
+	public static final String QUEUE_CAPACITY_INIT_PARAM = "queueCapacity";
+	
+	/**
+	 * The name of the "rejectionPolicy"-initialization-parameter.
+	 */
+	public static final String REJECTION_POLICY_INIT_PARAM = "rejectionPolicy";
+	
+	/**
+	 * The name of the "maxTasksPerSession"-initialization-parameter.
+	 */
+	public static final String MAX_TASKS_PER_SESSION_INIT_PARAM = "maxTasksPerSession";
+	
+	/**
+	 * The name of the "priorityAgingInterval"-initialization-parameter.
+	 */
+	public static final String PRIORITY_AGING_INTERVAL_INIT_PARAM = "priorityAgingInterval";
+	
+	private static final int DEFAULT_PRIORITY_AGING_INTERVAL = 5000;
+	
+	private static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+	
+	private static final String VIRTUAL_THREAD_NAME_PREFIX = "vaadinworker-virtual-";
+	
 	/**
 	 * The ExecutorService will be accessible under this name.
 	 */
@@ -118,32 +305,100 @@ public class ExecutorServiceContextListener implements ServletContextListener {
 	private boolean gracefulShutdown;
 
 	/**
-	 * Creates and initializes an ExecutorService that utilizes as much threads
-	 * as configured using the "threadCount"-parameter in web.xml.
+	 * Creates and initializes an ExecutorService of the configured 
+	 * "executorType" that utilizes as much threads as configured using the 
+	 * pool-size-parameters in web.xml.
 	 */
 	public void contextInitialized(ServletContextEvent contextEvent) {
 		final ServletContext context = contextEvent.getServletContext();
 		final ThreadFactory daemonFactory = new DaemonThreadFactory();
 		
-		int threadCount = 1;
-		try {
-			String tcInitParam = context.getInitParameter(THREAD_COUNT_INIT_PARAM);
-			threadCount = Integer.parseInt(tcInitParam);
-		} catch (NumberFormatException ignore) {
+		ExecutorType executorType = ExecutorType.forParamValue(
+				context.getInitParameter(EXECUTOR_TYPE_INIT_PARAM));
+		int queueCapacity = getIntInitParameter(context, QUEUE_CAPACITY_INIT_PARAM, 0);
+		RejectionPolicy rejectionPolicy = RejectionPolicy.forParamValue(
+				context.getInitParameter(REJECTION_POLICY_INIT_PARAM));
+		int maxTasksPerSession = getIntInitParameter(context, 
+				MAX_TASKS_PER_SESSION_INIT_PARAM, 0);
+		int agingInterval = getIntInitParameter(context, 
+				PRIORITY_AGING_INTERVAL_INIT_PARAM, DEFAULT_PRIORITY_AGING_INTERVAL);
+		if (agingInterval <= 0) {
+			agingInterval = DEFAULT_PRIORITY_AGING_INTERVAL;
 		}
 		
 		String gsInitParam = context.getInitParameter(GRACEFUL_SHUTDOWN_INIT_PARAM);
 		gracefulShutdown = Boolean.valueOf(gsInitParam);
 
-		if (threadCount <= 1) {
-			executor = Executors.newSingleThreadExecutor(daemonFactory);
-		} else {
-			executor = Executors.newFixedThreadPool(threadCount, daemonFactory);
+		// The FairSessionExecutor keeps all waiting tasks, so the pool's own
+		// queue never holds more than a few tasks in transit
+		ExecutorService pool;
+		int concurrency;
+		switch (executorType) {
+		case VIRTUAL:
+			// Virtual threads are always daemons
+			pool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+					.name(VIRTUAL_THREAD_NAME_PREFIX, 0).factory());
+			int limit = getIntInitParameter(context, VIRTUAL_THREAD_LIMIT_INIT_PARAM, 0);
+			concurrency = (limit > 0 ? limit : Integer.MAX_VALUE);
+			break;
+		case FORK_JOIN:
+			// The workers of a ForkJoinPool are always daemons
+			int parallelism = getIntInitParameter(context, PARALLELISM_INIT_PARAM, 
+					Runtime.getRuntime().availableProcessors());
+			if (parallelism <= 0) {
+				parallelism = Runtime.getRuntime().availableProcessors();
+			}
+			pool = new ForkJoinPool(parallelism);
+			concurrency = parallelism;
+			break;
+		default:
+			// availableProcessors() respects the CPU-quota of a container
+			int processors = Runtime.getRuntime().availableProcessors();
+			int threadCount = getIntInitParameter(context, THREAD_COUNT_INIT_PARAM, 0);
+			int corePoolSize = getIntInitParameter(context, CORE_POOL_SIZE_INIT_PARAM, 
+					threadCount > 0 ? threadCount : processors);
+			if (corePoolSize < 0) {
+				corePoolSize = processors;
+			}
+			int maxPoolSize = getIntInitParameter(context, MAX_POOL_SIZE_INIT_PARAM, 
+					threadCount > 0 ? threadCount : 2 * processors);
+			maxPoolSize = Math.max(Math.max(1, corePoolSize), maxPoolSize);
+			int keepAliveSeconds = getIntInitParameter(context, 
+					KEEP_ALIVE_SECONDS_INIT_PARAM, DEFAULT_KEEP_ALIVE_SECONDS);
+			if (keepAliveSeconds <= 0) {
+				keepAliveSeconds = DEFAULT_KEEP_ALIVE_SECONDS;
+			}
+			boolean prestart = Boolean.valueOf(
+					context.getInitParameter(PRESTART_CORE_THREADS_INIT_PARAM));
+			
+			ElasticThreadPoolExecutor elasticPool = new ElasticThreadPoolExecutor(
+					corePoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, 
+					daemonFactory);
+			if (prestart) {
+				elasticPool.prestartAllCoreThreads();
+			}
+			else if (corePoolSize > 0) {
+				// release idle threads between bursts
+				elasticPool.allowCoreThreadTimeOut(true);
+			}
+			pool = elasticPool;
+			concurrency = maxPoolSize;
 		}
+		executor = new FairSessionExecutor(pool, concurrency, maxTasksPerSession, 
+				queueCapacity, rejectionPolicy, agingInterval);
 		
 		context.setAttribute(EXECUTOR_SERVICE_CTX_PARAM, executor);
 	}
 	
+	private static int getIntInitParameter(ServletContext context, String name, 
+			int defaultValue) {
+		try {
+			return Integer.parseInt(context.getInitParameter(name));
+		} catch (NumberFormatException ignore) {
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * Shuts down the ExecutorService. If "gracefulShutdown" is set to true, all
 	 * tasks that have been submitted prior to the shutdown will be finished.
@@ -160,5 +415,25 @@ public class ExecutorServiceContextListener implements ServletContextListener {
 			executor.shutdownNow();
 		}
 	}
+	
+	/**
+	 * Hooks the <code>UIActionQueue</code>s of the session into the 
+	 * request-handling once Vaadin has stored its 
+	 * <code>WebApplicationContext</code>.
+	 */
+	public void attributeAdded(HttpSessionBindingEvent event) {
+		if(event.getValue() instanceof WebApplicationContext) {
+			UIActionQueue.install(event.getSession(), 
+					(WebApplicationContext) event.getValue());
+		}
+	}
+	
+	public void attributeRemoved(HttpSessionBindingEvent event) {
+		// Nothing to do
+	}
+	
+	public void attributeReplaced(HttpSessionBindingEvent event) {
+		// Nothing to do
+	}
 
 }
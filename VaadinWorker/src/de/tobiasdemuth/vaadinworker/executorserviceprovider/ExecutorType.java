@@ -0,0 +1,68 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+/**
+ * The kinds of <code>ExecutorService</code>s the 
+ * <code>ExecutorServiceContextListener</code> can create. They are selected 
+ * by the "executorType"-initialization-parameter.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public enum ExecutorType {
+	
+	/**
+	 * An elastic pool of platform-threads, sized by the "corePoolSize"- and
+	 * "maxPoolSize"-initialization-parameters. This is the default.
+	 */
+	POOLED("pooled"),
+	
+	/**
+	 * A new virtual thread per task. Best suited for workers spending most of
+	 * their time blocked in I/O, e.g. in JDBC- or HTTP-calls. The number of 
+	 * concurrently running tasks can be capped by the 
+	 * "virtualThreadLimit"-initialization-parameter.
+	 * 
+	 * On Java 21 a virtual thread blocked inside <code>synchronized</code> 
+	 * pins its carrier-thread, and the lock of the <code>Application</code>
+	 * is taken that way. So workers run by virtual threads report their 
+	 * progress by a <code>NonBlockingProgressDispatcher</code> by default, 
+	 * and should not take the lock themselves. <code>initUI()</code> and 
+	 * <code>updateUI()</code> still hold it briefly.
+	 */
+	VIRTUAL("virtual"),
+	
+	/**
+	 * A work-stealing <code>ForkJoinPool</code>, whose parallelism is set by 
+	 * the "parallelism"-initialization-parameter. Best suited for CPU-bound
+	 * <code>ParallelVaadinWorker</code>s, as their subtasks are forked into 
+	 * the same pool and idle threads steal them from busy ones.
+	 */
+	FORK_JOIN("forkJoin");
+	
+	private final String paramValue;
+	
+	private ExecutorType(String paramValue) {
+		this.paramValue = paramValue;
+	}
+	
+	/**
+	 * @return the value of the "executorType"-initialization-parameter
+	 * selecting this type.
+	 */
+	public String getParamValue() {
+		return paramValue;
+	}
+	
+	/**
+	 * Returns the type selected by the given parameter-value, ignoring the
+	 * case. <code>POOLED</code> is returned for null or unknown values.
+	 */
+	public static ExecutorType forParamValue(String paramValue) {
+		for(ExecutorType type : values()) {
+			if(type.paramValue.equalsIgnoreCase(paramValue)) {
+				return type;
+			}
+		}
+		return POOLED;
+	}
+
+}
@@ -0,0 +1,565 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import de.tobiasdemuth.vaadinworker.Priority;
+import de.tobiasdemuth.vaadinworker.Ticker;
+import de.tobiasdemuth.vaadinworker.WorkerTask;
+
+/**
+ * <p>
+ * This <code>ExecutorService</code> schedules tasks fairly among the 
+ * <code>Application</code>s sharing it. Every <code>Application</code> gets 
+ * its own queue and the queues are served round-robin, so a single user 
+ * submitting dozens of tasks cannot keep everybody else waiting. Tasks that
+ * are no <code>WorkerTask</code>s share one queue of their own.
+ * </p>
+ * 
+ * <p>
+ * Fairness applies within a <code>Priority</code>-class: Tasks of a higher
+ * class are always handed to the delegate first, tasks of the same class 
+ * round-robin per <code>Application</code>. Waiting tasks age into the next
+ * higher class once per aging-interval, so <code>NORMAL</code>-tasks do not 
+ * starve behind a stream of <code>INTERACTIVE</code>-ones. 
+ * <code>BULK</code>-tasks are scavengers: They only start aging after having
+ * waited for <code>SCAVENGER_PATIENCE</code> aging-intervals, so until then 
+ * they only run while no other task is waiting. Like every other task they
+ * are promoted one aging-interval after they have started aging.
+ * </p>
+ * 
+ * <p>
+ * The tasks are actually run by a delegate <code>ExecutorService</code>. This
+ * executor never hands more than <code>concurrency</code> tasks to it at 
+ * once, keeping all waiting tasks in its own queues instead. Optionally the
+ * number of concurrently running tasks per <code>Application</code> can be 
+ * limited as well.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class FairSessionExecutor extends AbstractExecutorService {
+	
+	/**
+	 * The number of aging-intervals a <code>BULK</code>-task waits before it
+	 * starts aging, i.e. it is promoted for the first time after 
+	 * <code>SCAVENGER_PATIENCE + 1</code> intervals.
+	 */
+	public static final int SCAVENGER_PATIENCE = 12;
+	
+	private static final Object ANONYMOUS = new Object();
+	
+	private static final class QueuedTask {
+		
+		private final Runnable task;
+		
+		private final Priority priority;
+		
+		private final long enqueued;
+		
+		private QueuedTask(Runnable task, Priority priority, long enqueued) {
+			this.task = task;
+			this.priority = priority;
+			this.enqueued = enqueued;
+		}
+		
+	}
+	
+	private static final class SessionQueue {
+		
+		private final Object key;
+		
+		private final Map<Priority, LinkedList<QueuedTask>> tasks = 
+				new EnumMap<Priority, LinkedList<QueuedTask>>(Priority.class);
+		
+		private int size = 0;
+		
+		private int running = 0;
+		
+		private SessionQueue(Object key) {
+			this.key = key;
+			for(Priority priority : Priority.values()) {
+				tasks.put(priority, new LinkedList<QueuedTask>());
+			}
+		}
+		
+		private boolean isEmpty() {
+			return size == 0;
+		}
+		
+		private void add(QueuedTask task) {
+			tasks.get(task.priority).addLast(task);
+			size++;
+		}
+		
+		/**
+		 * Returns the oldest task of the lowest priority-class.
+		 */
+		private QueuedTask removeLeastImportant() {
+			return removeLeastImportant(Priority.values()[0]);
+		}
+		
+		/**
+		 * Returns the oldest task of the lowest priority-class, unless that 
+		 * class is higher than the given one.
+		 * 
+		 * @return null if there is no such task.
+		 */
+		private QueuedTask removeLeastImportant(Priority highest) {
+			Priority[] priorities = Priority.values();
+			for(int i = priorities.length - 1; i >= highest.ordinal(); i--) {
+				LinkedList<QueuedTask> list = tasks.get(priorities[i]);
+				if(!list.isEmpty()) {
+					size--;
+					return list.removeFirst();
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Returns the oldest task of the class with the highest effective 
+		 * rank, without removing it.
+		 */
+		private QueuedTask peekMostImportant(long now, long agingInterval) {
+			QueuedTask best = null;
+			int bestRank = Integer.MAX_VALUE;
+			for(LinkedList<QueuedTask> list : tasks.values()) {
+				if(list.isEmpty()) {
+					continue;
+				}
+				QueuedTask head = list.getFirst();
+				int rank = getRank(head, now, agingInterval);
+				if(rank < bestRank || (rank == bestRank && head.enqueued < best.enqueued)) {
+					best = head;
+					bestRank = rank;
+				}
+			}
+			return best;
+		}
+		
+		private void remove(QueuedTask task) {
+			tasks.get(task.priority).remove(task);
+			size--;
+		}
+		
+		/**
+		 * Removes the queued task wrapping the given one, if there is any.
+		 */
+		private boolean removeTask(Runnable task) {
+			for(LinkedList<QueuedTask> list : tasks.values()) {
+				for(Iterator<QueuedTask> it = list.iterator(); it.hasNext(); ) {
+					if(it.next().task == task) {
+						it.remove();
+						size--;
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		
+	}
+	
+	private final class ScheduledTask implements Runnable {
+		
+		private final Runnable task;
+		
+		private final SessionQueue session;
+		
+		private ScheduledTask(Runnable task, SessionQueue session) {
+			this.task = task;
+			this.session = session;
+		}
+
+		public void run() {
+			try {
+				task.run();
+			}
+			finally {
+				List<Runnable> refused;
+				synchronized(lock) {
+					running--;
+					session.running--;
+					removeIfIdle(session);
+					refused = dispatch();
+					lock.notifyAll();
+				}
+				discardAll(refused);
+			}
+		}
+		
+	}
+	
+	private final ExecutorService delegate;
+	
+	private final int concurrency;
+	
+	private final int maxTasksPerSession;
+	
+	private final int queueCapacity;
+	
+	private final RejectionPolicy rejectionPolicy;
+	
+	private final long agingInterval;
+	
+	private final Ticker ticker;
+	
+	private final Object lock = new Object();
+	
+	private final Map<Object, SessionQueue> sessions = new HashMap<Object, SessionQueue>();
+	
+	// Sessions with queued tasks in round-robin-order
+	private final LinkedList<SessionQueue> ring = new LinkedList<SessionQueue>();
+	
+	private int queued = 0;
+	
+	private int running = 0;
+	
+	private boolean shutdown = false;
+	
+	/**
+	 * @param delegate the <code>ExecutorService</code> actually running the 
+	 * tasks.
+	 * @param concurrency the maximal number of tasks handed to the delegate
+	 * at once, normally the number of its threads.
+	 * @param maxTasksPerSession the maximal number of concurrently running 
+	 * tasks per <code>Application</code>, not positive for no limit.
+	 * @param queueCapacity the maximal number of waiting tasks, not positive
+	 * for no limit.
+	 * @param rejectionPolicy decides what happens to tasks not fitting into
+	 * the queue.
+	 * @param agingInterval the time in milliseconds after which a waiting 
+	 * task is promoted to the next higher <code>Priority</code>-class.
+	 * @throws NullPointerException if <code>delegate</code> or 
+	 * <code>rejectionPolicy</code> is null.
+	 * @throws IllegalArgumentException if <code>concurrency</code> or 
+	 * <code>agingInterval</code> is not positive.
+	 */
+	public FairSessionExecutor(ExecutorService delegate, int concurrency, 
+			int maxTasksPerSession, int queueCapacity, RejectionPolicy rejectionPolicy,
+			long agingInterval) {
+		this(delegate, concurrency, maxTasksPerSession, queueCapacity, 
+				rejectionPolicy, agingInterval, Ticker.SYSTEM);
+	}
+	
+	/**
+	 * @param ticker the source of the time the aging is based on.
+	 */
+	FairSessionExecutor(ExecutorService delegate, int concurrency, 
+			int maxTasksPerSession, int queueCapacity, RejectionPolicy rejectionPolicy,
+			long agingInterval, Ticker ticker) {
+		if(delegate == null || rejectionPolicy == null) {
+			throw new NullPointerException("Delegate and RejectionPolicy are " +
+					"not allowed to be null!");
+		}
+		if(concurrency <= 0 || agingInterval <= 0) {
+			throw new IllegalArgumentException("Concurrency and aging-interval " +
+					"must be positive!");
+		}
+		this.delegate = delegate;
+		this.concurrency = concurrency;
+		this.maxTasksPerSession = (maxTasksPerSession > 0 ? 
+				maxTasksPerSession : Integer.MAX_VALUE);
+		this.queueCapacity = (queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE);
+		this.rejectionPolicy = rejectionPolicy;
+		this.agingInterval = agingInterval;
+		this.ticker = ticker;
+	}
+
+	public void execute(Runnable task) {
+		if(task == null) {
+			throw new NullPointerException("Task is not allowed to be null!");
+		}
+		
+		boolean callerRuns = false;
+		Runnable dropped = null;
+		List<Runnable> refused = null;
+		synchronized(lock) {
+			if(shutdown) {
+				throw new RejectedExecutionException("The executor is shut down!");
+			}
+			
+			SessionQueue session = sessions.get(getSessionKey(task));
+			QueuedTask victim = null;
+			if(queued >= queueCapacity) {
+				if(rejectionPolicy == RejectionPolicy.CALLER_RUNS &&
+						RejectionPolicy.mayRunInCaller(task)) {
+					callerRuns = true;
+				}
+				else if(rejectionPolicy == RejectionPolicy.DROP_OLDEST_PER_SESSION &&
+						session != null && (victim = 
+						session.removeLeastImportant(getPriority(task))) != null) {
+					dropped = victim.task;
+					queued--;
+					if(session.isEmpty()) {
+						ring.remove(session);
+					}
+				}
+				else {
+					throw new RejectedExecutionException("The work-queue is full!");
+				}
+			}
+			
+			if(!callerRuns) {
+				enqueue(task, session);
+				refused = dispatch();
+			}
+		}
+		
+		// Handled without holding the lock, as both might do arbitrary work
+		if(callerRuns) {
+			task.run();
+		}
+		else {
+			if(dropped instanceof WorkerTask) {
+				((WorkerTask) dropped).discard();
+			}
+			discardAll(refused);
+		}
+	}
+	
+	/**
+	 * Informs the given tasks that they will never run. Must be called 
+	 * without holding the lock.
+	 */
+	private static void discardAll(List<Runnable> tasks) {
+		for(Runnable task : tasks) {
+			if(task instanceof WorkerTask) {
+				((WorkerTask) task).discard();
+			}
+		}
+	}
+	
+	private void enqueue(Runnable task, SessionQueue session) {
+		if(session == null) {
+			Object key = getSessionKey(task);
+			session = new SessionQueue(key);
+			sessions.put(key, session);
+		}
+		if(session.isEmpty()) {
+			ring.addLast(session);
+		}
+		session.add(new QueuedTask(task, getPriority(task), currentMillis()));
+		queued++;
+	}
+	
+	/**
+	 * Hands queued tasks to the delegate as long as there are free slots. 
+	 * Must be called with the lock held.
+	 * 
+	 * @return the tasks rejected by the delegate, e.g. because it has been 
+	 * shut down. They have to be discarded once the lock has been released.
+	 */
+	private List<Runnable> dispatch() {
+		List<Runnable> refused = new ArrayList<Runnable>(0);
+		final long now = currentMillis();
+		while(running < concurrency && !ring.isEmpty()) {
+			// The first session in round-robin-order offering a task of the 
+			// highest effective rank wins
+			SessionQueue session = null;
+			QueuedTask next = null;
+			int bestRank = Integer.MAX_VALUE;
+			for(SessionQueue candidate : ring) {
+				if(candidate.running >= maxTasksPerSession) {
+					continue;
+				}
+				QueuedTask head = candidate.peekMostImportant(now, agingInterval);
+				int rank = getRank(head, now, agingInterval);
+				if(rank < bestRank) {
+					session = candidate;
+					next = head;
+					bestRank = rank;
+				}
+			}
+			if(session == null) {
+				break; // Every session with queued tasks is at its limit
+			}
+			
+			ring.remove(session);
+			session.remove(next);
+			queued--;
+			if(!session.isEmpty()) {
+				ring.addLast(session);
+			}
+			
+			running++;
+			session.running++;
+			try {
+				delegate.execute(new ScheduledTask(next.task, session));
+			}
+			catch(RejectedExecutionException e) {
+				// Nothing would retry the task, so it is dropped
+				running--;
+				session.running--;
+				removeIfIdle(session);
+				refused.add(next.task);
+			}
+		}
+		
+		if(shutdown && queued == 0) {
+			delegate.shutdown();
+		}
+		return refused;
+	}
+	
+	/**
+	 * Returns the effective rank of a waiting task - the lower, the more 
+	 * important. It is the ordinal of the task's <code>Priority</code> 
+	 * reduced by one per aging-interval the task has been waiting.
+	 */
+	private static int getRank(QueuedTask task, long now, long agingInterval) {
+		long steps = (now - task.enqueued) / agingInterval;
+		if(task.priority == Priority.BULK) {
+			steps = Math.max(0, steps - SCAVENGER_PATIENCE);
+		}
+		return (int) Math.max(0, task.priority.ordinal() - steps);
+	}
+	
+	/**
+	 * Returns the time in milliseconds the aging is measured with. Just as 
+	 * the <code>Ticker</code> it has an arbitrary origin.
+	 */
+	private long currentMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+	}
+	
+	private static Priority getPriority(Runnable task) {
+		return RejectionPolicy.getPriority(task);
+	}
+	
+	private void removeIfIdle(SessionQueue session) {
+		if(session.running == 0 && session.isEmpty()) {
+			sessions.remove(session.key);
+		}
+	}
+	
+	private static Object getSessionKey(Runnable task) {
+		if(task instanceof WorkerTask) {
+			return ((WorkerTask) task).getWorker().getApplication();
+		}
+		return ANONYMOUS;
+	}
+	
+	/**
+	 * Removes the given task from the queue, if it has not been handed to the
+	 * delegate yet. This frees its place in the queue immediately, e.g. when
+	 * the task has been canceled.
+	 * 
+	 * @return true if the task has been removed.
+	 */
+	public boolean remove(Runnable task) {
+		synchronized(lock) {
+			SessionQueue session = sessions.get(getSessionKey(task));
+			if(session == null || !session.removeTask(task)) {
+				return false;
+			}
+			
+			queued--;
+			if(session.isEmpty()) {
+				ring.remove(session);
+				removeIfIdle(session);
+			}
+			if(shutdown && queued == 0) {
+				delegate.shutdown();
+			}
+			lock.notifyAll();
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns the number of tasks waiting to be handed to the delegate.
+	 */
+	public int getQueuedTaskCount() {
+		synchronized(lock) {
+			return queued;
+		}
+	}
+
+	/**
+	 * Stops accepting new tasks. Already queued tasks are still run.
+	 */
+	public void shutdown() {
+		synchronized(lock) {
+			shutdown = true;
+			if(queued == 0) {
+				delegate.shutdown();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Stops accepting new tasks, drops all queued ones and tries to stop the
+	 * running ones.
+	 * 
+	 * @return the dropped tasks.
+	 */
+	public List<Runnable> shutdownNow() {
+		List<Runnable> dropped = new ArrayList<Runnable>();
+		synchronized(lock) {
+			shutdown = true;
+			for(SessionQueue session : ring) {
+				QueuedTask task;
+				while((task = session.removeLeastImportant()) != null) {
+					dropped.add(task.task);
+				}
+				removeIfIdle(session);
+			}
+			ring.clear();
+			queued = 0;
+			lock.notifyAll();
+		}
+		
+		for(Runnable task : delegate.shutdownNow()) {
+			if(task instanceof ScheduledTask) {
+				dropped.add(((ScheduledTask) task).task);
+			}
+			else {
+				dropped.add(task);
+			}
+		}
+		return dropped;
+	}
+
+	public boolean isShutdown() {
+		synchronized(lock) {
+			return shutdown;
+		}
+	}
+
+	public boolean isTerminated() {
+		synchronized(lock) {
+			return shutdown && queued == 0 && delegate.isTerminated();
+		}
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		// Counted down instead of adding it to nanoTime(), which would 
+		// overflow for awaitTermination(Long.MAX_VALUE, ...)
+		long remaining = unit.toNanos(timeout);
+		synchronized(lock) {
+			while(!shutdown || queued > 0) {
+				if(remaining <= 0) {
+					return false;
+				}
+				long start = System.nanoTime();
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+				remaining -= System.nanoTime() - start;
+			}
+		}
+		return delegate.awaitTermination(remaining, TimeUnit.NANOSECONDS);
+	}
+
+}
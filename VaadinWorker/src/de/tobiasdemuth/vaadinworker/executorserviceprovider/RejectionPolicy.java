@@ -0,0 +1,156 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.vaadin.Application;
+
+import de.tobiasdemuth.vaadinworker.Priority;
+import de.tobiasdemuth.vaadinworker.WorkerTask;
+
+/**
+ * The policies the <code>ExecutorServiceContextListener</code> supports for
+ * tasks that cannot be accepted because the work-queue is full. They are 
+ * selected by the "rejectionPolicy"-initialization-parameter and applied by
+ * the <code>FairSessionExecutor</code>. Each policy is also a 
+ * <code>RejectedExecutionHandler</code> and can therefore be used with a
+ * plain bounded <code>ThreadPoolExecutor</code> as well.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public enum RejectionPolicy implements RejectedExecutionHandler {
+	
+	/**
+	 * Rejects the new task by throwing a <code>RejectedExecutionException</code>,
+	 * which the <code>BackgroundExecutor</code> reports as a rejected
+	 * <code>Submission</code>. This is the default.
+	 */
+	ABORT("abort") {
+		
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			throw new RejectedExecutionException("The work-queue is full!");
+		}
+		
+	},
+	
+	/**
+	 * Runs the new task in the submitting thread, which throttles exactly 
+	 * those submitting the overload, e.g. a worker forking tasks. A thread 
+	 * holding the lock of the task's <code>Application</code> - like every 
+	 * request-thread - would freeze the UI of the whole session while the 
+	 * task runs, so the task is rejected just as by <code>ABORT</code> then.
+	 * So this policy only differs from <code>ABORT</code> for workers 
+	 * submitted to the <code>BackgroundExecutor</code> by background-threads.
+	 * The same applies to a resubmitted <code>WorkerTask</code>, as the 
+	 * submitting thread belongs to another <code>Application</code>.
+	 */
+	CALLER_RUNS("callerRuns") {
+		
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException("The executor is shut down!");
+			}
+			if(!mayRunInCaller(task)) {
+				throw new RejectedExecutionException("The work-queue is full!");
+			}
+			task.run();
+		}
+		
+	},
+	
+	/**
+	 * Drops a queued task of the same <code>Application</code> in favor of 
+	 * the new one: the oldest of the lowest <code>Priority</code>-class 
+	 * queued, as long as that class is not higher than the one of the new 
+	 * task. The dropped task is informed by calling 
+	 * <code>WorkerTask.discard()</code>, which turns the 
+	 * <code>Submission</code> of a task of the <code>BackgroundExecutor</code>
+	 * into a rejected one. If the <code>Application</code> has no such queued
+	 * task, the new task is rejected just as by <code>ABORT</code>.
+	 */
+	DROP_OLDEST_PER_SESSION("dropOldestPerSession") {
+		
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if(executor.isShutdown() || !(task instanceof WorkerTask)) {
+				throw new RejectedExecutionException("The work-queue is full!");
+			}
+			
+			Application app = ((WorkerTask) task).getWorker().getApplication();
+			WorkerTask victim = null;
+			for(Runnable queued : executor.getQueue()) {
+				if(queued instanceof WorkerTask && 
+						((WorkerTask) queued).getWorker().getApplication() == app &&
+						getPriority(queued).compareTo(getPriority(task)) >= 0 &&
+						(victim == null || 
+						getPriority(queued).compareTo(getPriority(victim)) > 0)) {
+					victim = (WorkerTask) queued;
+				}
+			}
+			if(victim != null && executor.remove(victim)) {
+				victim.discard();
+				executor.execute(task);
+				return;
+			}
+			
+			throw new RejectedExecutionException("The work-queue is full and " +
+					"holds no less important task of the same Application!");
+		}
+		
+	};
+	
+	private final String paramValue;
+	
+	private RejectionPolicy(String paramValue) {
+		this.paramValue = paramValue;
+	}
+	
+	/**
+	 * @return the value of the "rejectionPolicy"-initialization-parameter
+	 * selecting this policy.
+	 */
+	public String getParamValue() {
+		return paramValue;
+	}
+	
+	/**
+	 * Returns true if the current thread may run the given task for 
+	 * <code>CALLER_RUNS</code>, i.e. it does not hold the lock of the task's
+	 * <code>Application</code> and the task has not been resubmitted.
+	 */
+	static boolean mayRunInCaller(Runnable task) {
+		if(task instanceof WorkerTask) {
+			if(((WorkerTask) task).isResubmitted()) {
+				return false;
+			}
+			Application app = ((WorkerTask) task).getWorker().getApplication();
+			return app == null || !Thread.holdsLock(app);
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the priority-class of the given task, <code>NORMAL</code> if it
+	 * has none.
+	 */
+	static Priority getPriority(Runnable task) {
+		if(task instanceof WorkerTask && ((WorkerTask) task).getPriority() != null) {
+			return ((WorkerTask) task).getPriority();
+		}
+		return Priority.NORMAL;
+	}
+	
+	/**
+	 * Returns the policy selected by the given parameter-value, ignoring the
+	 * case. <code>ABORT</code> is returned for null or unknown values.
+	 */
+	public static RejectionPolicy forParamValue(String paramValue) {
+		for(RejectionPolicy policy : values()) {
+			if(policy.paramValue.equalsIgnoreCase(paramValue)) {
+				return policy;
+			}
+		}
+		return ABORT;
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.tobiasdemuth.vaadinworker.progressdispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+import de.tobiasdemuth.vaadinworker.ProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.TimerWheel;
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * This <code>ProgressDispatcher</code> batches progress-updates: Only the 
+ * latest progress / state pair is kept, updates that do not change the last 
+ * communicated values are dropped and the listeners are informed at most once
+ * per configured interval. The latest pending value is always handed over 
+ * before <code>updateUI()</code> gets called.
+ * 
+ * A value held back because of the interval is handed over by the next call
+ * of <code>updateProgress()</code> after the interval has passed. If there 
+ * is none, the shared <code>TimerWheel</code> posts the delivery to the 
+ * <code>UIActionQueue</code> once the interval has passed, so the latest 
+ * value reaches the listeners with the next request after that, even if the 
+ * updates are sparse.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class CoalescingProgressDispatcher implements ProgressDispatcher {
+
+	private static final long serialVersionUID = -6404436281962651310L;
+	
+	private final class Trailer implements Runnable {
+		
+		private final VaadinWorker worker;
+		
+		private Trailer(VaadinWorker worker) {
+			this.worker = worker;
+		}
+		
+		public void run() {
+			// Runs on the thread of the wheel, which must never wait for the
+			// lock of the Application
+			UIActionQueue queue;
+			try {
+				queue = UIActionQueue.get(worker.getApplication());
+			}
+			catch(IllegalStateException e) {
+				return; // Not running anymore, nobody to inform
+			}
+			queue.post(new Runnable() {
+				
+				public void run() {
+					synchronized(CoalescingProgressDispatcher.this) {
+						trailing = false;
+					}
+					flush(worker);
+				}
+				
+			});
+		}
+		
+	}
+
+	private final long interval;
+	
+	// The following fields are guarded by this dispatcher
+	
+	private int dispatchedProgress = Integer.MIN_VALUE;
+	
+	private String dispatchedState;
+	
+	private long lastDispatch;
+	
+	private boolean pending = false;
+	
+	private int pendingProgress;
+	
+	private String pendingState;
+	
+	// Whether a trailing delivery has been scheduled and not yet been run
+	private boolean trailing = false;
+	
+	/**
+	 * @param interval the minimal time in milliseconds between two 
+	 * notifications of the listeners.
+	 * @throws IllegalArgumentException if <code>interval</code> is not 
+	 * positive.
+	 */
+	public CoalescingProgressDispatcher(long interval) {
+		if(interval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive!");
+		}
+		this.interval = interval;
+	}
+	
+	/**
+	 * @return the minimal time in milliseconds between two notifications of 
+	 * the listeners.
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public void dispatch(VaadinWorker worker, int progress, String state) {
+		long remaining;
+		synchronized(this) {
+			if(progress == dispatchedProgress && state.equals(dispatchedState)) {
+				// Nothing changed since the last notification, so anything 
+				// still pending would just be outdated
+				pending = false;
+				return;
+			}
+			
+			pending = true;
+			pendingProgress = progress;
+			pendingState = state;
+			
+			remaining = lastDispatch + interval - System.currentTimeMillis();
+			if(remaining > 0) {
+				if(!trailing) {
+					trailing = true;
+					TimerWheel.getShared().schedule(new Trailer(worker), 
+							remaining, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+		}
+		flush(worker);
+	}
+
+	public void flush(VaadinWorker worker) {
+		synchronized(this) {
+			if(!pending) {
+				return; // Spares taking the lock of the Application
+			}
+		}
+		
+		// The lock of the Application is taken before the one of this 
+		// dispatcher, so concurrent flushes hand over their values in order
+		synchronized(worker.getApplication()) {
+			int progress;
+			String state;
+			synchronized(this) {
+				if(!pending) {
+					return;
+				}
+				pending = false;
+				
+				progress = dispatchedProgress = pendingProgress;
+				state = dispatchedState = pendingState;
+				lastDispatch = System.currentTimeMillis();
+			}
+			
+			worker.fireWorkProgressed(progress, state);
+		}
+	}
+
+}
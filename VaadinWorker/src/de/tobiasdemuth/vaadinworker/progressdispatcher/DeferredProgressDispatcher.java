@@ -0,0 +1,42 @@
+package de.tobiasdemuth.vaadinworker.progressdispatcher;
+
+import de.tobiasdemuth.vaadinworker.ProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * This <code>ProgressDispatcher</code> never takes the lock of the 
+ * <code>Application</code> while the work is in progress. It just remembers
+ * the latest progress / state pair and hands it to the listeners right before
+ * <code>updateUI()</code> gets called, where the lock is held anyway.
+ * 
+ * Use it for workers whose listeners are only interested in the final state
+ * or which do not have any listeners at all.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class DeferredProgressDispatcher implements ProgressDispatcher {
+
+	private static final long serialVersionUID = 5417020185016011374L;
+
+	private boolean pending = false;
+	
+	private int pendingProgress;
+	
+	private String pendingState;
+
+	public void dispatch(VaadinWorker worker, int progress, String state) {
+		pending = true;
+		pendingProgress = progress;
+		pendingState = state;
+	}
+
+	public void flush(VaadinWorker worker) {
+		if(!pending) {
+			return;
+		}
+		pending = false;
+		
+		worker.fireWorkProgressed(pendingProgress, pendingState);
+	}
+
+}
@@ -0,0 +1,29 @@
+package de.tobiasdemuth.vaadinworker.progressdispatcher;
+
+import de.tobiasdemuth.vaadinworker.ProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * The default <code>ProgressDispatcher</code>: Every progress-update is handed
+ * to the listeners immediately by the thread running the 
+ * <code>VaadinWorker</code>. The lock of the <code>Application</code> is 
+ * acquired once per update, regardless of the number of registered listeners.
+ * 
+ * This dispatcher is stateless, so a single instance may be shared among any
+ * number of workers.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class LockingProgressDispatcher implements ProgressDispatcher {
+
+	private static final long serialVersionUID = 2196367461531437406L;
+
+	public void dispatch(VaadinWorker worker, int progress, String state) {
+		worker.fireWorkProgressed(progress, state);
+	}
+
+	public void flush(VaadinWorker worker) {
+		// Nothing is ever pending
+	}
+
+}
@@ -0,0 +1,88 @@
+package de.tobiasdemuth.vaadinworker.progressdispatcher;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.tobiasdemuth.vaadinworker.ProgressDispatcher;
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * <p>
+ * This <code>ProgressDispatcher</code> never blocks the thread running the
+ * <code>VaadinWorker</code>. Instead of waiting for the lock of the 
+ * <code>Application</code> - which might be held by a slow request for quite 
+ * some time - the latest progress / state pair is stored and handed to the 
+ * listeners by the next request-thread of the <code>Application</code>, 
+ * which holds the lock anyway. Updates arriving in the meantime simply 
+ * replace the stored one.
+ * </p>
+ * 
+ * <p>
+ * The intrinsic lock of the <code>Application</code> does not support a 
+ * <code>tryLock()</code>, so the delivery is always deferred to the 
+ * <code>UIActionQueue</code> of the <code>Application</code>. The latest
+ * value is handed over right before <code>updateUI()</code> in any case.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class NonBlockingProgressDispatcher implements ProgressDispatcher {
+
+	private static final long serialVersionUID = -1792226590566302817L;
+	
+	private static final class Update implements Serializable {
+		
+		private static final long serialVersionUID = 4302905516434658720L;
+		
+		private final int progress;
+		
+		private final String state;
+		
+		private Update(int progress, String state) {
+			this.progress = progress;
+			this.state = state;
+		}
+		
+	}
+	
+	private final class Delivery implements Runnable {
+		
+		private final VaadinWorker worker;
+		
+		private Delivery(VaadinWorker worker) {
+			this.worker = worker;
+		}
+
+		public void run() {
+			scheduled.set(false);
+			deliver(worker);
+		}
+		
+	}
+	
+	private final AtomicReference<Update> latest = new AtomicReference<Update>();
+	
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	public void dispatch(VaadinWorker worker, int progress, String state) {
+		latest.set(new Update(progress, state));
+		
+		if(scheduled.compareAndSet(false, true)) {
+			UIActionQueue.get(worker.getApplication()).post(new Delivery(worker));
+		}
+	}
+
+	public void flush(VaadinWorker worker) {
+		deliver(worker);
+	}
+	
+	private void deliver(VaadinWorker worker) {
+		Update update = latest.getAndSet(null);
+		if(update != null) {
+			worker.fireWorkProgressed(update.progress, update.state);
+		}
+	}
+
+}
@@ -1,6 +1,19 @@
 package de.tobiasdemuth.vaadinworker.ui;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import com.vaadin.ui.Component;
 import com.vaadin.ui.CustomComponent;
@@ -9,8 +22,16 @@ import com.vaadin.ui.PopupView;
 import com.vaadin.ui.ProgressIndicator;
 import com.vaadin.ui.VerticalLayout;
 
+import de.tobiasdemuth.vaadinworker.AsyncVaadinWorker;
 import de.tobiasdemuth.vaadinworker.ExecutorServiceProvider;
+import de.tobiasdemuth.vaadinworker.KeyedVaadinWorker;
+import de.tobiasdemuth.vaadinworker.Priority;
+import de.tobiasdemuth.vaadinworker.ProgressSnapshot;
+import de.tobiasdemuth.vaadinworker.TimerWheel;
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
 import de.tobiasdemuth.vaadinworker.VaadinWorker;
+import de.tobiasdemuth.vaadinworker.WorkerTask;
+import de.tobiasdemuth.vaadinworker.executorserviceprovider.FairSessionExecutor;
 
 /**
  * <p>
@@ -19,24 +40,46 @@ import de.tobiasdemuth.vaadinworker.VaadinWorker;
  * of this being the UI is also that this class does the more difficult type of
  * synchronization necessary in Vaadin - it keeps the client polling for updates
  * as long as needed. This ensures that changes done by a background-thread
- * actually become visible to the user.
+ * actually become visible to the user. Each of those polling requests also 
+ * drains the <code>UIActionQueue</code> of the <code>Application</code>, 
+ * executing all UI-actions posted by the workers in one batch.
  * </p>
  * 
  * <p>
  * The polling is done using the only core-Vaadin-solution to this problem: A
- * <code>ProgressIndicator</code>. Actually the UI displays several 
- * <code>ProgressIndicator</code>s - one for each running task plus an 
- * indeterminate one that keeps spinning until all tasks are done. In order to 
- * keep the UI clean, the task-specific <code>ProgressIndicator</code>s are 
- * placed in a <code>PopupView</code> and get only visible if the user clicks 
- * the "Loading ..."-link.
+ * <code>ProgressIndicator</code>. The executor owns a single indeterminate
+ * one that keeps spinning - and polling - until all tasks are done. The 
+ * views of the individual tasks are passive displays, refreshed by those 
+ * polling requests, so there is only one poll per interval no matter how 
+ * many tasks are running. In order to keep the UI clean, the task-specific 
+ * views are placed in a <code>PopupView</code> and get only visible if the 
+ * user clicks the "Loading ..."-link.
+ * </p>
+ * 
+ * <p>
+ * The polling-interval adapts to the activity of the running tasks: It drops
+ * to the minimal interval while there are pending UI-actions or a task is 
+ * about to finish, stays at the default interval while the tasks make 
+ * progress and otherwise grows with the time elapsed since the last 
+ * progress was seen, up to the maximal interval. As it depends on that time
+ * only, requests issued by the user in between polls do not stretch it. 
+ * <code>AsyncVaadinWorker</code>s and 
+ * <code>KeyedVaadinWorker</code>s following an identical worker complete 
+ * by posting to the <code>UIActionQueue</code> without any progress to 
+ * foresee it, so the interval never backs off beyond the default one while
+ * such a worker is outstanding. Polling stops as soon as all tasks are done.
  * </p>
  * 
  * <p>
  * The second purpose of this class is to provide an interface for submitting
  * <code>VaadinWorker</code>s and ensuring that those get run in a separate
  * thread. A <code>VaadinWorker</code> can be handed out for getting worked on
- * by calling the method <code>submit(VaadinWorker)</code>.
+ * by calling the method <code>submit(VaadinWorker)</code>. The returned 
+ * <code>Submission</code> is the <code>Future</code> of the worker's run. 
+ * Canceling a worker that is still queued removes it from the work-queue 
+ * right away, canceling a running one may interrupt its thread. Workers may
+ * be submitted with a timeout, which is tracked by the shared 
+ * <code>TimerWheel</code> instead of a scheduled task per worker.
  * </p>
  * 
  * <p>
@@ -51,12 +94,294 @@ import de.tobiasdemuth.vaadinworker.VaadinWorker;
  *
  * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
  */
-public class BackgroundExecutor extends CustomComponent {
+public class BackgroundExecutor extends CustomComponent implements 
+		UIActionQueue.PollListener {
 	
 	private static final long serialVersionUID = -2524675072804796156L;
 	
+	/**
+	 * Runs a <code>VaadinWorker</code> and cleans up after it. Cancel-requests
+	 * of the worker are forwarded to this <code>Future</code>. The 
+	 * <code>Future</code> of an <code>AsyncVaadinWorker</code> completes with 
+	 * the worker's completion-stage, not when the pool-thread is released. 
+	 * The progress-view of a worker canceled while running is removed once 
+	 * the worker has actually returned.
+	 */
+	private final class BackgroundTask extends FutureTask<VaadinWorker> 
+			implements WorkerTask, VaadinWorker.CancelListener {
+		
+		private final VaadinWorker vaadinWorker;
+		
+		private final Component progressView;
+		
+		private final Priority priority;
+		
+		private final ExecutorService executor;
+		
+		private volatile boolean started = false;
+		
+		private volatile boolean rejected = false;
+		
+		// True while the task mirrors the flight of a leader
+		private volatile boolean following = false;
+		
+		private volatile boolean resubmitted = false;
+		
+		// True while run() has not returned yet
+		private volatile boolean running = false;
+		
+		private final AtomicBoolean finishedUp = new AtomicBoolean(false);
+		
+		private volatile TimerWheel.Timeout timeout;
+		
+		private final Submission submission;
+		
+		private BackgroundTask(VaadinWorker vaadinWorker, Component progressView,
+				Priority priority, ExecutorService executor) {
+			super(vaadinWorker, vaadinWorker);
+			this.vaadinWorker = vaadinWorker;
+			this.progressView = progressView;
+			this.priority = priority;
+			this.executor = executor;
+			this.submission = new Submission(vaadinWorker, 
+					Submission.Status.ACCEPTED, this);
+		}
+
+		public VaadinWorker getWorker() {
+			return vaadinWorker;
+		}
+		
+		public Priority getPriority() {
+			return priority;
+		}
+		
+		public boolean isResubmitted() {
+			return resubmitted;
+		}
+
+		@Override
+		public void run() {
+			started = true;
+			running = true;
+			try {
+				if(vaadinWorker instanceof AsyncVaadinWorker) {
+					runAsync((AsyncVaadinWorker<?>) vaadinWorker);
+				}
+				else {
+					super.run();
+				}
+			}
+			finally {
+				running = false;
+				if(isDone()) {
+					// Done before the worker had returned, e.g. canceled
+					finishUp();
+				}
+			}
+		}
+		
+		private void runAsync(AsyncVaadinWorker<?> asyncWorker) {
+			if(isDone()) {
+				return; // Canceled while queued
+			}
+			
+			try {
+				asyncWorker.run();
+			}
+			catch(RuntimeException e) {
+				setException(e);
+				return;
+			}
+			
+			completeWith(asyncWorker.getCompletion());
+		}
+		
+		/**
+		 * Lets a <code>KeyedVaadinWorker</code> follow the flight it has 
+		 * joined instead of being run.
+		 */
+		private void follow(CompletionStage<VaadinWorker> flight) {
+			started = true;
+			following = true;
+			completeWith(flight);
+		}
+		
+		/**
+		 * Runs a <code>KeyedVaadinWorker</code> taking over the flight it has
+		 * followed from a canceled leader. This is called by the thread of 
+		 * another <code>Application</code>, so the executor must not run the
+		 * task in this thread.
+		 */
+		private void takeOver() {
+			started = false;
+			following = false;
+			resubmitted = true;
+			try {
+				executor.execute(this);
+			}
+			catch(RejectedExecutionException e) {
+				// Dropped just like from a full work-queue, which lets the next
+				// follower take over
+				discard();
+			}
+		}
+		
+		private void completeWith(CompletionStage<?> completion) {
+			completion.whenComplete(new BiConsumer<Object, Throwable>() {
+				
+				public void accept(Object result, Throwable failure) {
+					if(failure instanceof CompletionException && 
+							failure.getCause() != null) {
+						failure = failure.getCause();
+					}
+					if(failure instanceof CancellationException) {
+						// Canceled by a cancel-request, not a failure
+						cancel(false);
+					}
+					else if(failure != null) {
+						setException(failure);
+					}
+					else {
+						set(vaadinWorker);
+					}
+				}
+				
+			});
+		}
+
+		public void discard() {
+			// Accepted at first, so the submission has to tell about it
+			submission.reject();
+			cancel(false);
+		}
+		
+		public void workCanceled(VaadinWorker worker, boolean mayInterruptIfRunning) {
+			if(!started) {
+				if(cancel(false)) {
+					// Frees the place in the work-queue right away
+					removeFromQueue(executor, this);
+				}
+			}
+			else if(mayInterruptIfRunning) {
+				cancel(true);
+			}
+		}
+		
+		private void scheduleTimeout(long delay, TimeUnit unit) {
+			timeout = TimerWheel.getShared().schedule(new Runnable() {
+				
+				public void run() {
+					if(!isDone()) {
+						vaadinWorker.timeOut(true);
+					}
+				}
+				
+			}, delay, unit);
+			
+			if(isDone()) {
+				// Finished before the timeout was known to done()
+				timeout.cancel();
+			}
+		}
+		
+		private void reject() {
+			rejected = true;
+			submission.reject();
+			cancel(false);
+		}
+		
+		@Override
+		protected void done() {
+			vaadinWorker.removeListener(this);
+			TimerWheel.Timeout pendingTimeout = timeout;
+			if(pendingTimeout != null) {
+				pendingTimeout.cancel();
+			}
+			if(!running) {
+				finishUp();
+			}
+			if(!isCancelled() && !following) {
+				// A failed leader is reported by its own task only
+				reportFailure();
+			}
+		}
+		
+		/**
+		 * Does the bookkeeping once the task is done and the worker is no 
+		 * longer running. A task canceled while running is done right away, 
+		 * so this waits for <code>run()</code> to return then.
+		 */
+		private void finishUp() {
+			if(!finishedUp.compareAndSet(false, true)) {
+				return;
+			}
+			if(vaadinWorker instanceof KeyedVaadinWorker<?, ?>) {
+				// A leader never run must not keep its followers waiting
+				((KeyedVaadinWorker<?, ?>) vaadinWorker).leaveFlight();
+			}
+			if(!rejected) {
+				cleanUp();
+			}
+		}
+		
+		/**
+		 * Hands an exception thrown by the worker to the handler of the 
+		 * current thread, just as if it had not been caught by this 
+		 * <code>Future</code>.
+		 */
+		private void reportFailure() {
+			try {
+				get();
+			}
+			catch(ExecutionException e) {
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, 
+						e.getCause());
+			}
+			catch(InterruptedException e) {
+				// Cannot happen as the task is done already
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		private void cleanUp() {
+			// A worker timing out in the queue never runs, so it is finished
+			// by the UIActionQueue
+			final boolean timedOutInQueue = !started && vaadinWorker.isTimedOut();
+			// Any other worker never run still has to be finished, so its
+			// subscribers do not wait forever
+			final boolean neverRun = !vaadinWorker.isStarted() && !following;
+			final boolean dropped = submission.isRejected();
+			
+			// The bookkeeping is done by the next (polling) request, so this 
+			// thread never has to wait for the lock
+			UIActionQueue.get(vaadinWorker.getApplication()).post(new Runnable() {
+				
+				public void run() {
+					taskDone(vaadinWorker, progressView);
+					if(timedOutInQueue) {
+						vaadinWorker.finishTimedOut();
+					}
+					else if(neverRun) {
+						vaadinWorker.abandon(dropped ? 
+								new RejectedExecutionException("Dropped from the work-queue!") :
+								new CancellationException("Canceled before it has been run!"));
+					}
+				}
+				
+			});
+		}
+		
+	}
+	
 	private static final String DEFAULT_CAPTION = "Loading ...";
 	
+	private static final int POLLING_INTERVAL = 500;
+	
+	private static final int MIN_POLLING_INTERVAL = 100;
+	
+	private static final int MAX_POLLING_INTERVAL = 10000;
+	
 	private static final TaskProgressViewFactory DEFAULT_TPV_FACTORY = 
 			new DefaultTaskProgressViewFactory();
 	
@@ -66,12 +391,25 @@ public class BackgroundExecutor extends CustomComponent {
 	
 	private final VerticalLayout popupRoot;
 	
+	private final ProgressIndicator poller;
+	
 	private final TaskProgressViewFactory tpvFactory;
 	
 	private boolean initialized = false;
 	
 	private int workItemCounter = 0;
 	
+	private int minPollingInterval = MIN_POLLING_INTERVAL;
+	
+	private int maxPollingInterval = MAX_POLLING_INTERVAL;
+	
+	// The latest seen progress-change of every running worker
+	private final Map<VaadinWorker, ProgressSnapshot[]> progressHistory = 
+			new HashMap<VaadinWorker, ProgressSnapshot[]>();
+	
+	// When polled() has last seen any progress or a new task
+	private long lastProgressSeen;
+	
 	/**
 	 * Creates a new <code>BackgroundExecutor</code> retrieving its 
 	 * <code>ExecutorService</code> from the given <code>ExecutorServiceProvider</code>.
@@ -109,25 +447,89 @@ public class BackgroundExecutor extends CustomComponent {
 		this.popupRoot.setSizeUndefined();
 		this.popupRoot.setSpacing(true);
 		
+		this.poller = new ProgressIndicator();
+		this.poller.setIndeterminate(true);
+		this.poller.setImmediate(true);
+		this.poller.setPollingInterval(POLLING_INTERVAL);
+		
 		setVisible(false);
 	}
 	
 	/**
 	 * Hands the overgiven <code>VaadinWorker</code> over to the 
-	 * <code>ExecutorService</code> for background-processing.
+	 * <code>ExecutorService</code> for background-processing with 
+	 * <code>Priority.NORMAL</code>.
 	 * 
+	 * @see #submit(VaadinWorker, Priority)
+	 */
+	public Submission submit(VaadinWorker vaadinWorker) throws IllegalStateException {
+		return submit(vaadinWorker, Priority.NORMAL);
+	}
+	
+	/**
+	 * Hands the overgiven <code>VaadinWorker</code> over to the 
+	 * <code>ExecutorService</code> for background-processing without a 
+	 * timeout.
+	 * 
+	 * @see #submit(VaadinWorker, Priority, long, TimeUnit)
+	 */
+	public Submission submit(VaadinWorker vaadinWorker, Priority priority) 
+			throws IllegalStateException {
+		return submit(vaadinWorker, priority, 0, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Hands the overgiven <code>VaadinWorker</code> over to the 
+	 * <code>ExecutorService</code> for background-processing. A
+	 * <code>KeyedVaadinWorker</code> whose result is cached is finished right
+	 * away instead, without taking a thread of the 
+	 * <code>ExecutorService</code>. One identical to a 
+	 * <code>KeyedVaadinWorker</code> in flight - of any session - joins its 
+	 * flight instead of being run, but gets a progress-view of its own and 
+	 * takes over the flight if the leader is canceled. 
+	 * Executors supporting priorities - like the one provided by the 
+	 * <code>ExecutorServiceContextListener</code> - run waiting workers of a
+	 * higher <code>Priority</code> first.
+	 * 
+	 * If the work-queue is full, a worker submitted by a thread not holding 
+	 * the lock of the <code>Application</code> might be run right away by 
+	 * that thread, see <code>RejectionPolicy.CALLER_RUNS</code>. Request-
+	 * threads always hold the lock, so their workers are rejected instead.
+	 * 
+	 * If the worker has not finished when the timeout - counted from now - 
+	 * has passed, it is timed out by calling 
+	 * <code>VaadinWorker.timeOut(true)</code>: A queued worker is removed from
+	 * the queue, a running one is interrupted. Its <code>updateUI()</code> is
+	 * called in both cases and can check <code>isTimedOut()</code>.
+	 * 
+	 * @param priority the priority-class of the worker, <code>null</code> is
+	 * treated as <code>Priority.NORMAL</code>.
+	 * @param timeout the maximal time the worker may take, not positive for
+	 * no timeout.
+	 * @param unit the unit of <code>timeout</code>.
+	 * @return a <code>Submission</code> telling whether the worker has been
+	 * accepted or rejected by the <code>ExecutorService</code>, e.g. because 
+	 * its work-queue is full, or has been served from the cache. It is also
+	 * the <code>Future</code> of the worker's run.
 	 * @throws IllegalStateException if either the <code>VaadinWorker</code>
 	 * synchronizes against another <code>Application</code> than the one, this
 	 * component is added to or if the <code>ExecutorService</code> has been 
 	 * told to shutdown itself. 
 	 */
-	public void submit(final VaadinWorker vaadinWorker) throws IllegalStateException {
+	public Submission submit(final VaadinWorker vaadinWorker, Priority priority,
+			long timeout, TimeUnit unit) throws IllegalStateException {
 		if(vaadinWorker.getApplication() != getApplication() || 
 				vaadinWorker.getApplication() == null) {
 			throw new IllegalStateException("The worker's application and my " +
 					"Application must be the same!");
 		}
 		
+		if(vaadinWorker instanceof KeyedVaadinWorker<?, ?> && 
+				((KeyedVaadinWorker<?, ?>) vaadinWorker).runFromCache()) {
+			return new Submission(vaadinWorker, Submission.Status.CACHED, 
+					CompletableFuture.completedFuture(vaadinWorker));
+		}
+		
 		final ExecutorService executor = executorServiceProvider.
 				getExecutorService(vaadinWorker.getApplication());
 		if(executor.isShutdown() || executor.isTerminated()) {
@@ -136,38 +538,84 @@ public class BackgroundExecutor extends CustomComponent {
 		}
 		
 		final Component progressView = tpvFactory.createTaskProgressView(vaadinWorker);
+		final BackgroundTask task = new BackgroundTask(vaadinWorker, progressView,
+				(priority != null ? priority : Priority.NORMAL), executor);
 		
-		popupRoot.addComponent(progressView);
-		executor.execute(new Runnable() {
-
-			public void run() {
-				try {
-					vaadinWorker.run();
-				}
-				catch(Exception e) {
-					throw new RuntimeException(e);
-				}
-				finally {
-					synchronized(vaadinWorker.getApplication()) {
-						workItemCounter--;
+		CompletionStage<VaadinWorker> flight = null;
+		if(vaadinWorker instanceof KeyedVaadinWorker<?, ?>) {
+			flight = ((KeyedVaadinWorker<?, ?>) vaadinWorker).joinFlight(
+					new Runnable() {
 						
-						// View-Updates
-						popupRoot.removeComponent(progressView);
-						if(workItemCounter <= 0) {
-							setVisible(false);
+						public void run() {
+							task.takeOver();
 						}
-					}
-				}
-			}
-			
-		});
+						
+					});
+		}
+		vaadinWorker.addListener(task);
 		
 		synchronized(vaadinWorker.getApplication()) {
+			popupRoot.addComponent(progressView);
+			progressHistory.put(vaadinWorker, new ProgressSnapshot[2]);
+			lastProgressSeen = System.currentTimeMillis();
 			workItemCounter++;
 			if(workItemCounter > 0) {
 				setVisible(true);
 			}
 		}
+		
+		// Handed over without taking the lock, so a thread not holding it 
+		// already - e.g. a worker submitting further workers - may run the 
+		// task itself with RejectionPolicy.CALLER_RUNS
+		try {
+			if(flight != null) {
+				task.follow(flight);
+			}
+			else {
+				executor.execute(task);
+			}
+		}
+		catch(RejectedExecutionException e) {
+			task.reject();
+			synchronized(vaadinWorker.getApplication()) {
+				taskDone(vaadinWorker, progressView);
+			}
+			vaadinWorker.abandon(e);
+			return task.submission;
+		}
+		if(timeout > 0) {
+			task.scheduleTimeout(timeout, unit);
+		}
+		return task.submission;
+	}
+	
+	/**
+	 * Removes a canceled task from the work-queue of executors supporting
+	 * this. Other executors will skip the task once it is due.
+	 */
+	private static void removeFromQueue(ExecutorService executor, Runnable task) {
+		if(executor instanceof FairSessionExecutor) {
+			((FairSessionExecutor) executor).remove(task);
+		}
+		else if(executor instanceof ThreadPoolExecutor) {
+			((ThreadPoolExecutor) executor).remove(task);
+		}
+	}
+	
+	/**
+	 * Removes every trace of a finished or discarded task. Must be called with
+	 * the lock of the <code>Application</code> held.
+	 */
+	private void taskDone(VaadinWorker vaadinWorker, Component progressView) {
+		workItemCounter--;
+		progressHistory.remove(vaadinWorker);
+		
+		// View-Updates
+		popupRoot.removeComponent(progressView);
+		if(workItemCounter <= 0) {
+			setVisible(false);
+			poller.setPollingInterval(POLLING_INTERVAL);
+		}
 	}
 	
 	/**
@@ -177,17 +625,122 @@ public class BackgroundExecutor extends CustomComponent {
 		return tpvFactory;
 	}
 	
+	/**
+	 * Sets the bounds for the adaptive polling-interval. The interval never 
+	 * drops below <code>min</code> and never rises above <code>max</code> 
+	 * milliseconds. The defaults are 100 and 10000 milliseconds.
+	 * 
+	 * @throws IllegalArgumentException if <code>min</code> is not positive or
+	 * greater than <code>max</code>.
+	 */
+	public void setPollingIntervalBounds(int min, int max) 
+			throws IllegalArgumentException {
+		if(min <= 0 || min > max) {
+			throw new IllegalArgumentException("Invalid bounds: " + min + 
+					" - " + max);
+		}
+		this.minPollingInterval = min;
+		this.maxPollingInterval = max;
+	}
+	
+	/**
+	 * Adapts the polling-interval to the activity of the running tasks. Gets
+	 * called during every request while this component is attached, not only
+	 * during polls, so the back-off is derived from the time since the last 
+	 * seen progress rather than from the number of calls.
+	 */
+	public void polled() {
+		if(workItemCounter <= 0) {
+			return; // Not visible, so there is no polling at all
+		}
+		
+		final long now = System.currentTimeMillis();
+		final int current = poller.getPollingInterval();
+		
+		boolean progressed = false;
+		boolean finishing = false;
+		boolean awaited = false;
+		for(Map.Entry<VaadinWorker, ProgressSnapshot[]> entry : 
+				progressHistory.entrySet()) {
+			awaited |= isCompletedByQueue(entry.getKey());
+			ProgressSnapshot snapshot = entry.getKey().getProgressSnapshot();
+			ProgressSnapshot[] history = entry.getValue();
+			
+			if(snapshot != history[1]) {
+				progressed = true;
+				history[0] = history[1];
+				history[1] = snapshot;
+			}
+			
+			finishing |= isFinishingWithin(history, now, current);
+		}
+		
+		if(progressed) {
+			lastProgressSeen = now;
+		}
+		
+		int interval;
+		if(finishing || UIActionQueue.get(getApplication()).hasPendingActions()) {
+			interval = minPollingInterval;
+		}
+		else {
+			// Waiting as long as nothing has happened since the last progress 
+			// doubles the interval from poll to poll if only polls come in.
+			long idle = Math.max(0, now - lastProgressSeen);
+			interval = (int) Math.min(maxPollingInterval, 
+					Math.max(POLLING_INTERVAL, idle));
+			if(awaited) {
+				interval = Math.min(interval, POLLING_INTERVAL);
+			}
+		}
+		interval = Math.max(minPollingInterval, 
+				Math.min(maxPollingInterval, interval));
+		
+		if(interval != current) {
+			poller.setPollingInterval(interval);
+		}
+	}
+	
+	/**
+	 * Returns true if the worker completes by an action posted to the 
+	 * <code>UIActionQueue</code> once some other work is done, which only 
+	 * the next poll executes.
+	 */
+	private static boolean isCompletedByQueue(VaadinWorker worker) {
+		return worker instanceof AsyncVaadinWorker<?> || 
+				(worker instanceof KeyedVaadinWorker<?, ?> && 
+				((KeyedVaadinWorker<?, ?>) worker).isFollower());
+	}
+	
+	/**
+	 * Estimates from the last two progress-changes whether the worker will 
+	 * probably finish within the given number of milliseconds.
+	 */
+	private static boolean isFinishingWithin(ProgressSnapshot[] history, 
+			long now, int millis) {
+		ProgressSnapshot previous = history[0];
+		ProgressSnapshot latest = history[1];
+		if(previous == null || latest == null || 
+				previous.getProgress() == VaadinWorker.INDETERMINATE ||
+				latest.getProgress() <= previous.getProgress()) {
+			return false;
+		}
+		
+		double rate = (double) (latest.getProgress() - previous.getProgress()) / 
+				Math.max(1, latest.getTimestamp() - previous.getTimestamp());
+		double remaining = (VaadinWorker.MAX - latest.getProgress()) / rate - 
+				(now - latest.getTimestamp());
+		return remaining <= millis;
+	}
+	
 	@Override
 	public void attach() {
+		UIActionQueue.get(getApplication()).addListener(this);
+		
 		if(initialized) {
 			return; // Initialize only once
 		}
 		
-		ProgressIndicator progressIndicator = new ProgressIndicator();
-		progressIndicator.setIndeterminate(true);
-		progressIndicator.setImmediate(true);
-		progressIndicator.setPollingInterval(500);
-		
 		PopupView popup = new PopupView(new PopupView.Content() {
 
 			private static final long serialVersionUID = -1332375457317966834L;
@@ -205,10 +758,16 @@ public class BackgroundExecutor extends CustomComponent {
 		HorizontalLayout layout = new HorizontalLayout();
 		layout.setSpacing(true);
 		
-		layout.addComponent(progressIndicator);
+		layout.addComponent(poller);
 		layout.addComponent(popup);
 		
 		setCompositionRoot(layout);
 	}
+	
+	@Override
+	public void detach() {
+		UIActionQueue.get(getApplication()).removeListener(this);
+		super.detach();
+	}
 
 }
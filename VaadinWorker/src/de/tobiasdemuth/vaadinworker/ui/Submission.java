@@ -0,0 +1,165 @@
+package de.tobiasdemuth.vaadinworker.ui;
+
+import java.io.Serializable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * <p>
+ * The result of handing a <code>VaadinWorker</code> over to a 
+ * <code>BackgroundExecutor</code>. It tells whether the worker has been 
+ * accepted for background-processing or has been rejected, e.g. because the 
+ * work-queue of the <code>ExecutorService</code> is full. The result of a
+ * <code>KeyedVaadinWorker</code> may also have been taken from the cache.
+ * </p>
+ * 
+ * <p>
+ * A <code>Submission</code> is also the <code>Future</code> of the worker's
+ * run. Canceling it cancels the worker: A queued worker is removed from the
+ * work-queue right away, a running one may be interrupted. A rejected 
+ * submission is canceled from the start - or once the worker has been 
+ * dropped from the work-queue. Never wait for a submission with 
+ * the lock of the <code>Application</code> held, as the worker needs this 
+ * lock to finish. Neither the <code>Future</code> nor the worker survive 
+ * serialization, a deserialized submission is always done.
+ * </p>
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public final class Submission implements Future<VaadinWorker>, Serializable {
+	
+	private static final long serialVersionUID = 6190880432744155837L;
+
+	public static enum Status {
+		
+		/**
+		 * The worker has been accepted and will be run in the background.
+		 */
+		ACCEPTED,
+		
+		/**
+		 * The worker has been rejected and will never run.
+		 */
+		REJECTED,
+		
+		/**
+		 * The worker's result has been taken from the cache, it has finished
+		 * without running in the background.
+		 */
+		CACHED
+		
+	}
+	
+	private final transient VaadinWorker worker;
+	
+	private volatile Status status;
+	
+	private final transient Future<VaadinWorker> future;
+	
+	Submission(VaadinWorker worker, Status status, Future<VaadinWorker> future) {
+		this.worker = worker;
+		this.status = status;
+		this.future = future;
+	}
+	
+	/**
+	 * Marks an accepted worker as rejected, e.g. because it has been dropped
+	 * from the work-queue in favor of a newer one.
+	 */
+	void reject() {
+		status = Status.REJECTED;
+	}
+	
+	/**
+	 * @return the submitted <code>VaadinWorker</code>, null after 
+	 * deserialization.
+	 */
+	public VaadinWorker getWorker() {
+		return worker;
+	}
+	
+	/**
+	 * @return whether the worker has been accepted, rejected or served from
+	 * the cache.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Returns true if the worker has been accepted for background-processing.
+	 */
+	public boolean isAccepted() {
+		return status == Status.ACCEPTED;
+	}
+	
+	/**
+	 * Returns true if the worker has been rejected and will never run. A 
+	 * worker accepted at first is rejected later on if the executor drops it
+	 * from a full work-queue in favor of a newer one; the submission is 
+	 * canceled then.
+	 */
+	public boolean isRejected() {
+		return status == Status.REJECTED;
+	}
+	
+	/**
+	 * Returns true if the worker's result has been taken from the cache.
+	 */
+	public boolean isCached() {
+		return status == Status.CACHED;
+	}
+	
+	/**
+	 * Cancels the worker by calling <code>VaadinWorker.cancel(boolean)</code>.
+	 * 
+	 * @return false if the worker is not cancelable or has already finished.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if(future == null || future.isDone() || !worker.isCancelable()) {
+			return false;
+		}
+		worker.cancel(mayInterruptIfRunning);
+		return future.isCancelled();
+	}
+	
+	public boolean isCancelled() {
+		return future == null || future.isCancelled();
+	}
+	
+	public boolean isDone() {
+		return future == null || future.isDone();
+	}
+	
+	/**
+	 * Waits for the worker to finish, including <code>updateUI()</code>.
+	 * 
+	 * @return the finished worker.
+	 */
+	public VaadinWorker get() throws InterruptedException, ExecutionException {
+		if(future == null) {
+			throw new CancellationException("Not available after serialization!");
+		}
+		return future.get();
+	}
+	
+	/**
+	 * Waits at most the given time for the worker to finish, including 
+	 * <code>updateUI()</code>.
+	 * 
+	 * @return the finished worker.
+	 */
+	public VaadinWorker get(long timeout, TimeUnit unit) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if(future == null) {
+			throw new CancellationException("Not available after serialization!");
+		}
+		return future.get(timeout, unit);
+	}
+
+}
@@ -8,18 +8,27 @@ import com.vaadin.ui.Label;
 import com.vaadin.ui.ProgressIndicator;
 import com.vaadin.ui.VerticalLayout;
 
+import de.tobiasdemuth.vaadinworker.ProgressSnapshot;
+import de.tobiasdemuth.vaadinworker.UIActionQueue;
 import de.tobiasdemuth.vaadinworker.VaadinWorker;
 
 /**
- * 
+ * Displays the progress of a single <code>VaadinWorker</code>. The view does
+ * not get the progress pushed by the worker, but reads the worker's latest
+ * <code>ProgressSnapshot</code> whenever a request of the 
+ * <code>Application</code> is handled. This way the worker never touches
+ * any component and the number of repaints does not depend on how often 
+ * <code>updateProgress()</code> gets called.
  *
  * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
  */
-final class TaskProgressView extends CustomComponent implements VaadinWorker.ProgressListener {
+final class TaskProgressView extends CustomComponent implements UIActionQueue.PollListener {
 
 	private static final long serialVersionUID = -9128251611030074624L;
 	
-	private static final int POLLING_INTERVALL = 500;
+	// The BackgroundExecutor drives the polling for all views, so this 
+	// ProgressIndicator is just a display that (practically) never polls
+	private static final int PASSIVE_POLLING_INTERVAL = 24 * 60 * 60 * 1000;
 	
 	private final VaadinWorker workload;
 	
@@ -31,15 +40,16 @@ final class TaskProgressView extends CustomComponent implements VaadinWorker.Pro
 	
 	private boolean initialized = false;
 	
+	private ProgressSnapshot shownSnapshot;
+	
 	public TaskProgressView(VaadinWorker vaadinWorker, String cancelCaption) {
 		if(vaadinWorker == null) {
 			throw new NullPointerException("Workload cannot be null!");
 		}
 		this.workload = vaadinWorker;
-		this.workload.addListener(this);
 		
 		this.progressIndicator = new ProgressIndicator();
-		this.progressIndicator.setPollingInterval(POLLING_INTERVALL);
+		this.progressIndicator.setPollingInterval(PASSIVE_POLLING_INTERVAL);
 		
 		this.stateLabel = new Label();
 		
@@ -49,7 +59,7 @@ final class TaskProgressView extends CustomComponent implements VaadinWorker.Pro
 			private static final long serialVersionUID = 6760693330701499660L;
 
 			public void buttonClick(ClickEvent event) {
-				workload.cancel();
+				workload.cancel(workload.isInterruptible());
 				cancel.setEnabled(false);
 			}
 			
@@ -58,6 +68,8 @@ final class TaskProgressView extends CustomComponent implements VaadinWorker.Pro
 	}
 	
 	public void attach() {
+		UIActionQueue.get(workload.getApplication()).addListener(this);
+		
 		if(initialized) {
 			return; // Initialize only once
 		}
@@ -82,9 +94,23 @@ final class TaskProgressView extends CustomComponent implements VaadinWorker.Pro
 		initialized = true;
 	}
 
-	public void workProgressed(int progress, String state, VaadinWorker worker) {
-		progressIndicator.setValue(progress / 100f);
-		stateLabel.setValue(state);
+	@Override
+	public void detach() {
+		UIActionQueue.get(workload.getApplication()).removeListener(this);
+		super.detach();
+	}
+
+	public void polled() {
+		ProgressSnapshot snapshot = workload.getProgressSnapshot();
+		if(snapshot == shownSnapshot) {
+			return; // Nothing new, nothing to repaint
+		}
+		shownSnapshot = snapshot;
+		
+		if(snapshot.getProgress() != VaadinWorker.INDETERMINATE) {
+			progressIndicator.setValue(snapshot.getProgress() / 100f);
+		}
+		stateLabel.setValue(snapshot.getState());
 	}
 
 }
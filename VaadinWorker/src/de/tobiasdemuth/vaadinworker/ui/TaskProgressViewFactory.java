@@ -10,6 +10,11 @@ import de.tobiasdemuth.vaadinworker.VaadinWorker;
  * A TaskProgressViewFactory is used to create the individual views for the
  * tasks currently under work. Using this mechanism you can highly customize
  * the content of the popup shown by the BackgroundExecutor.   
+ * 
+ * The created views should not poll on their own, as the BackgroundExecutor
+ * already keeps the client polling while any task is running. Views can 
+ * refresh themselves during those polls by registering a 
+ * <code>UIActionQueue.PollListener</code>.
  *
  * @see de.tobiasdemuth.vaadinworker.ui.DefaultTaskProgressViewFactory
  * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
@@ -0,0 +1,152 @@
+package de.tobiasdemuth.vaadinworker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Covers the weight-based LRU-eviction, the expiry by time-to-live and the
+ * argument checks. The expiry is driven by a <code>ManualTicker</code>, so 
+ * the tests check the exact boundary without sleeping.
+ * 
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class ResultCacheTest {
+	
+	@Test
+	public void evictsLeastRecentlyUsedResults() {
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A", 4);
+		cache.put("b", "B", 4);
+		// Makes "b" the least recently used result
+		assertEquals("A", cache.get("a"));
+		
+		cache.put("c", "C", 4);
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+		assertEquals(8, cache.getWeight());
+	}
+	
+	@Test
+	public void evictsAsManyResultsAsNeeded() {
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A", 3);
+		cache.put("b", "B", 3);
+		cache.put("c", "C", 3);
+		
+		cache.put("d", "D", 9);
+		assertEquals(1, cache.size());
+		assertEquals("D", cache.get("d"));
+		assertEquals(9, cache.getWeight());
+	}
+	
+	@Test
+	public void doesNotCacheOversizedResults() {
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A", 5);
+		cache.put("a", "huge", 11);
+		
+		// The stale result must not survive either
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+	
+	@Test
+	public void replacesResultsAndTheirWeight() {
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A", 5);
+		cache.put("a", "A2", 2);
+		assertEquals("A2", cache.get("a"));
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getWeight());
+		
+		// Weights below 1 count as 1
+		cache.put("b", "B", 0);
+		assertEquals(3, cache.getWeight());
+	}
+	
+	@Test
+	public void expiresResultsAfterTimeToLive() {
+		ManualTicker ticker = new ManualTicker();
+		ResultCache cache = new ResultCache(10, 50, TimeUnit.MILLISECONDS, ticker);
+		cache.put("a", "A", 1);
+		
+		ticker.advance(49);
+		assertEquals("A", cache.get("a"));
+		
+		ticker.advance(1);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+	
+	@Test
+	public void keepsResultsWithoutTimeToLive() {
+		ManualTicker ticker = new ManualTicker();
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.MILLISECONDS, ticker);
+		cache.put("a", "A", 1);
+		
+		ticker.advance(TimeUnit.DAYS.toMillis(1));
+		assertEquals("A", cache.get("a"));
+	}
+	
+	@Test
+	public void invalidatesAndClearsResults() {
+		ResultCache cache = new ResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A", 2);
+		cache.put("b", "B", 3);
+		
+		cache.invalidate("a");
+		assertNull(cache.get("a"));
+		assertEquals(3, cache.getWeight());
+		
+		cache.clear();
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+	
+	@Test
+	public void rejectsInvalidArguments() {
+		try {
+			new ResultCache(0, 0, TimeUnit.SECONDS);
+			fail("Created a cache without capacity");
+		}
+		catch(IllegalArgumentException e) {
+			// Expected
+		}
+		
+		try {
+			new ResultCache(10, 0, TimeUnit.SECONDS).put("a", null, 1);
+			fail("Cached null");
+		}
+		catch(NullPointerException e) {
+			// Expected
+		}
+	}
+	
+	/**
+	 * A <code>Ticker</code> whose time only passes when told to.
+	 */
+	private static final class ManualTicker implements Ticker {
+		
+		private final AtomicLong nanos = new AtomicLong();
+		
+		public long read() {
+			return nanos.get();
+		}
+		
+		private void advance(long millis) {
+			nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+		
+	}
+
+}
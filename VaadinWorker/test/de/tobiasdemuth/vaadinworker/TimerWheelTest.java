@@ -0,0 +1,168 @@
+package de.tobiasdemuth.vaadinworker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class TimerWheelTest {
+	
+	private static final long TICK_MILLIS = 10;
+	
+	private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, 8);
+	
+	@Test
+	public void runsActionOnceTheDelayHasPassed() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		long start = System.nanoTime();
+		wheel.schedule(countDown(expired), 50, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Expired after " + elapsed + "ms", elapsed >= 50 - TICK_MILLIS);
+		assertEquals(0, wheel.getPendingCount());
+	}
+	
+	@Test
+	public void runsDelaysLongerThanOneRoundInOrder() throws Exception {
+		// 8 buckets of 10ms make a round of 80ms
+		final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+		final CountDownLatch expired = new CountDownLatch(3);
+		for(final long delay : new long[] { 250, 30, 120 }) {
+			wheel.schedule(new Runnable() {
+				
+				public void run() {
+					order.add(delay);
+					expired.countDown();
+				}
+				
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertEquals(3, wheel.getPendingCount());
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(30L, 120L, 250L), order);
+	}
+	
+	@Test
+	public void neverRunsCanceledAction() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(countDown(expired), 
+				30, TimeUnit.MILLISECONDS);
+		
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertEquals(0, wheel.getPendingCount());
+		assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void cannotCancelExpiredTimeout() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(countDown(expired), 
+				0, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+	}
+	
+	@Test
+	public void keepsTurningAfterFailingAction() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		Thread.UncaughtExceptionHandler handler = 
+				Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			
+			public void uncaughtException(Thread t, Throwable e) {
+				// Expected
+			}
+			
+		});
+		try {
+			wheel.schedule(new Runnable() {
+				
+				public void run() {
+					throw new IllegalStateException("Failing on purpose");
+				}
+				
+			}, 10, TimeUnit.MILLISECONDS);
+			wheel.schedule(countDown(expired), 40, TimeUnit.MILLISECONDS);
+			
+			assertTrue(expired.await(5, TimeUnit.SECONDS));
+		}
+		finally {
+			Thread.setDefaultUncaughtExceptionHandler(handler);
+		}
+	}
+	
+	@Test
+	public void neverRunsActionWithOverflowingDelay() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(2);
+		TimerWheel.Timeout nanos = wheel.schedule(countDown(expired), 
+				Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		TimerWheel.Timeout days = wheel.schedule(countDown(expired), 
+				Long.MAX_VALUE, TimeUnit.DAYS);
+		
+		assertFalse(expired.await(10 * TICK_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(2, expired.getCount());
+		assertEquals(2, wheel.getPendingCount());
+		assertTrue(nanos.cancel());
+		assertTrue(days.cancel());
+	}
+	
+	@Test
+	public void neverRunsActionWithOverflowingDelayAcrossANegativeOrigin() 
+			throws Exception {
+		// The time passes zero shortly after the wheel has started turning
+		final long offset = -TimeUnit.MILLISECONDS.toNanos(3 * TICK_MILLIS) - 
+				System.nanoTime();
+		TimerWheel shifted = new TimerWheel(TICK_MILLIS, 8, new Ticker() {
+			
+			public long read() {
+				return System.nanoTime() + offset;
+			}
+			
+		});
+		// Keeps the wheel turning, so it keeps its negative start-time
+		TimerWheel.Timeout keepAlive = shifted.schedule(countDown(
+				new CountDownLatch(1)), 1, TimeUnit.HOURS);
+		final CountDownLatch passedZero = new CountDownLatch(1);
+		shifted.schedule(countDown(passedZero), 6 * TICK_MILLIS, TimeUnit.MILLISECONDS);
+		assertTrue(passedZero.await(5, TimeUnit.SECONDS));
+		
+		final CountDownLatch expired = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = shifted.schedule(countDown(expired), 
+				Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		
+		assertFalse(expired.await(10 * TICK_MILLIS, TimeUnit.MILLISECONDS));
+		assertTrue(timeout.cancel());
+		assertTrue(keepAlive.cancel());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveTick() {
+		new TimerWheel(0, 8);
+	}
+	
+	private static Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			
+			public void run() {
+				latch.countDown();
+			}
+			
+		};
+	}
+
+}
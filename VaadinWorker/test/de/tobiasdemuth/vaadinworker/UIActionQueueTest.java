@@ -0,0 +1,164 @@
+package de.tobiasdemuth.vaadinworker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.Application;
+import com.vaadin.service.ApplicationContext;
+import com.vaadin.terminal.ApplicationResource;
+
+/**
+ * Covers how a queue hooks itself into the request-handling of a context 
+ * that has not been prepared by <code>install()</code>. Requests are 
+ * simulated by informing the <code>TransactionListener</code>s of the 
+ * context.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class UIActionQueueTest {
+	
+	private final TestContext context = new TestContext();
+	
+	private final Application app = new TestApplication();
+	
+	private final AtomicInteger executed = new AtomicInteger();
+	
+	private final Runnable action = new Runnable() {
+		
+		public void run() {
+			assertTrue(Thread.holdsLock(app));
+			executed.incrementAndGet();
+		}
+		
+	};
+	
+	@Before
+	public void setUp() throws Exception {
+		app.start(new URL("http://localhost/"), new Properties(), context);
+	}
+	
+	@After
+	public void tearDown() {
+		app.close();
+	}
+	
+	@Test
+	public void registersRightAwayWithoutTheApplicationLock() {
+		UIActionQueue queue = UIActionQueue.get(app);
+		assertEquals(1, context.listeners.size());
+		assertSame(queue, UIActionQueue.get(app));
+		
+		queue.post(action);
+		request();
+		assertEquals(1, executed.get());
+		assertFalse(queue.hasPendingActions());
+	}
+	
+	@Test
+	public void putsOffTheRegistrationUnderTheApplicationLock() {
+		UIActionQueue queue;
+		synchronized(app) {
+			queue = UIActionQueue.get(app);
+			queue.post(action);
+		}
+		assertTrue(context.listeners.isEmpty());
+		
+		// The first post without the lock registers before enqueuing
+		queue.post(action);
+		assertEquals(1, context.listeners.size());
+		request();
+		assertEquals(2, executed.get());
+	}
+	
+	@Test
+	public void registersOnTheNextGetWithoutTheApplicationLock() {
+		synchronized(app) {
+			UIActionQueue.get(app);
+		}
+		assertTrue(context.listeners.isEmpty());
+		
+		UIActionQueue queue = UIActionQueue.get(app);
+		assertEquals(1, context.listeners.size());
+		queue.post(action);
+		request();
+		assertEquals(1, executed.get());
+	}
+	
+	/**
+	 * Lets the context inform its listeners just as a request of the 
+	 * <code>Application</code> does.
+	 */
+	private void request() {
+		for(ApplicationContext.TransactionListener listener : context.listeners) {
+			listener.transactionStart(app, null);
+		}
+		for(ApplicationContext.TransactionListener listener : context.listeners) {
+			listener.transactionEnd(app, null);
+		}
+	}
+	
+	private static final class TestApplication extends Application {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void init() {
+			// Nothing to show
+		}
+		
+	}
+	
+	private static final class TestContext implements ApplicationContext {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<TransactionListener> listeners = 
+				new CopyOnWriteArrayList<TransactionListener>();
+		
+		public void addTransactionListener(TransactionListener listener) {
+			listeners.add(listener);
+		}
+		
+		public void removeTransactionListener(TransactionListener listener) {
+			listeners.remove(listener);
+		}
+		
+		public File getBaseDirectory() {
+			return null;
+		}
+		
+		public Collection<Application> getApplications() {
+			return Collections.emptyList();
+		}
+		
+		public String generateApplicationResourceURL(ApplicationResource resource, 
+				String urlKey) {
+			return null;
+		}
+		
+		public boolean isApplicationResourceURL(URL context, String relativeUri) {
+			return false;
+		}
+		
+		public String getURLKey(URL context, String relativeUri) {
+			return null;
+		}
+		
+	}
+
+}
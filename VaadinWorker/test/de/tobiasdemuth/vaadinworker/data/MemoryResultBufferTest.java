@@ -0,0 +1,114 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+/**
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class MemoryResultBufferTest {
+	
+	// Several chunks of 1024 rows and a grown directory
+	private static final int ROWS = 10000;
+	
+	private final MemoryResultBuffer buffer = new MemoryResultBuffer();
+	
+	@Test
+	public void keepsAppendedRowsInOrder() {
+		Object[][] rows = new Object[ROWS][];
+		for(int i = 0; i < ROWS; i++) {
+			rows[i] = new Object[] { i, "row " + i };
+			buffer.append(rows[i]);
+		}
+		
+		assertEquals(ROWS, buffer.size());
+		for(int i = 0; i < ROWS; i++) {
+			assertSame(rows[i], buffer.get(i));
+		}
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsIndexNotYetAppended() {
+		buffer.append(new Object[] { 1 });
+		buffer.get(1);
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsNegativeIndex() {
+		buffer.append(new Object[] { 1 });
+		buffer.get(-1);
+	}
+	
+	@Test
+	public void rejectsAppendingOnceCompleted() {
+		buffer.append(new Object[] { 1 });
+		assertFalse(buffer.isComplete());
+		buffer.complete();
+		assertTrue(buffer.isComplete());
+		
+		try {
+			buffer.append(new Object[] { 2 });
+			fail("Appended to a completed buffer");
+		}
+		catch(IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(1, buffer.size());
+	}
+	
+	@Test
+	public void readsConsistentlyWhileAppending() throws Exception {
+		Thread writer = new Thread() {
+			
+			@Override
+			public void run() {
+				for(int i = 0; i < ROWS * 10; i++) {
+					buffer.append(new Object[] { i });
+				}
+				buffer.complete();
+			}
+			
+		};
+		writer.start();
+		
+		while(!buffer.isComplete()) {
+			// Every row below the published size is visible
+			int size = buffer.size();
+			if(size > 0) {
+				assertEquals(size - 1, buffer.get(size - 1)[0]);
+			}
+		}
+		writer.join();
+		assertEquals(ROWS * 10, buffer.size());
+	}
+	
+	@Test
+	public void survivesSerialization() throws Exception {
+		for(int i = 0; i < ROWS; i++) {
+			buffer.append(new Object[] { i });
+		}
+		buffer.complete();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(buffer);
+		out.close();
+		MemoryResultBuffer copy = (MemoryResultBuffer) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		
+		assertEquals(ROWS, copy.size());
+		assertTrue(copy.isComplete());
+		assertEquals(ROWS - 1, copy.get(ROWS - 1)[0]);
+	}
+
+}
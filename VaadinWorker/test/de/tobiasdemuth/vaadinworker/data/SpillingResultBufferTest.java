@@ -0,0 +1,199 @@
+package de.tobiasdemuth.vaadinworker.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Keeps only two chunks in memory, so nearly all rows go through the spill
+ * file. Covers the round trip of every type the default codec supports, 
+ * the rejection of unsupported values, recovering from a failed spill, a 
+ * reader interrupted while reading the file and deleting the file on close.
+ * 
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class SpillingResultBufferTest {
+	
+	private static final int CHUNK_SIZE = 16;
+	
+	private static final int ROWS = 1000;
+	
+	// Keeps two chunks in memory, so nearly all rows are spilled
+	private SpillingResultBuffer buffer = new SpillingResultBuffer(
+			SpillingResultBuffer.DEFAULT_CODEC, CHUNK_SIZE, 2);
+	
+	@After
+	public void tearDown() throws IOException {
+		buffer.close();
+	}
+	
+	@Test
+	public void readsBackSpilledRowsOfAllSupportedTypes() {
+		for(int i = 0; i < ROWS; i++) {
+			buffer.append(row(i));
+		}
+		buffer.complete();
+		
+		assertEquals(ROWS, buffer.size());
+		for(int i = 0; i < ROWS; i++) {
+			assertArrayEquals(row(i), buffer.get(i));
+		}
+		// Backwards as well, beyond the decoded chunks cached
+		for(int i = ROWS - 1; i >= 0; i -= 7) {
+			assertArrayEquals(row(i), buffer.get(i));
+		}
+	}
+	
+	@Test
+	public void rejectsUnsupportedValuesWhenAppending() {
+		buffer.append(row(0));
+		for(Object value : new Object[] { 1.5f, (short) 2, TimeUnit.SECONDS }) {
+			try {
+				buffer.append(new Object[] { "valid", value });
+				fail("Appended " + value.getClass());
+			}
+			catch(IllegalArgumentException e) {
+				// Expected
+			}
+		}
+		assertEquals(1, buffer.size());
+	}
+	
+	@Test
+	public void keepsRowsWhenSpillingFails() throws IOException {
+		FailingCodec codec = new FailingCodec();
+		buffer.close();
+		buffer = new SpillingResultBuffer(codec, CHUNK_SIZE, 2);
+		for(int i = 0; i < 2 * CHUNK_SIZE; i++) {
+			buffer.append(row(i));
+		}
+		
+		// The third chunk needs the first one to be spilled
+		codec.failing = true;
+		try {
+			buffer.append(row(2 * CHUNK_SIZE));
+			fail("Spilling did not fail");
+		}
+		catch(UncheckedIOException e) {
+			// Expected
+		}
+		assertEquals(2 * CHUNK_SIZE, buffer.size());
+		
+		codec.failing = false;
+		for(int i = 2 * CHUNK_SIZE; i < ROWS; i++) {
+			buffer.append(row(i));
+		}
+		for(int i = 0; i < ROWS; i++) {
+			assertArrayEquals(row(i), buffer.get(i));
+		}
+	}
+	
+	@Test
+	public void survivesInterruptedReader() throws Exception {
+		for(int i = 0; i < ROWS; i++) {
+			buffer.append(row(i));
+		}
+		
+		Thread reader = new Thread() {
+			
+			@Override
+			public void run() {
+				interrupt();
+				buffer.get(0);
+			}
+			
+		};
+		reader.start();
+		reader.join();
+		
+		for(int i = 0; i < ROWS; i++) {
+			assertArrayEquals(row(i), buffer.get(i));
+		}
+	}
+	
+	@Test
+	public void deletesFileWhenClosed() throws IOException {
+		Set<Path> before = listSpillFiles();
+		for(int i = 0; i < ROWS; i++) {
+			buffer.append(row(i));
+		}
+		Set<Path> created = listSpillFiles();
+		created.removeAll(before);
+		assertEquals(1, created.size());
+		
+		buffer.close();
+		assertTrue(Files.notExists(created.iterator().next()));
+		try {
+			buffer.get(0);
+			fail("Read from a closed buffer");
+		}
+		catch(IllegalStateException e) {
+			// Expected
+		}
+	}
+	
+	private static Object[] row(int i) {
+		return new Object[] {
+				i,
+				(long) i * Integer.MAX_VALUE,
+				"row " + i + " äöü",
+				(i % 3 == 0) ? null : i / 3.0,
+				i % 2 == 0,
+				BigInteger.valueOf(i).pow(5),
+				new BigDecimal(BigInteger.valueOf(i), 3),
+				new Date(1000L * i)
+		};
+	}
+	
+	private static Set<Path> listSpillFiles() throws IOException {
+		Set<Path> files = new HashSet<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(
+				Paths.get(System.getProperty("java.io.tmpdir")), "vaadinworker-*.spill");
+		try {
+			for(Path file : stream) {
+				files.add(file);
+			}
+		}
+		finally {
+			stream.close();
+		}
+		return files;
+	}
+	
+	private static final class FailingCodec implements SpillingResultBuffer.Codec {
+		
+		private volatile boolean failing = false;
+		
+		public void writeRow(DataOutput out, Object[] row) throws IOException {
+			if(failing) {
+				throw new IOException("Failing on purpose");
+			}
+			SpillingResultBuffer.DEFAULT_CODEC.writeRow(out, row);
+		}
+		
+		public Object[] readRow(DataInput in) throws IOException {
+			return SpillingResultBuffer.DEFAULT_CODEC.readRow(in);
+		}
+		
+	}
+
+}
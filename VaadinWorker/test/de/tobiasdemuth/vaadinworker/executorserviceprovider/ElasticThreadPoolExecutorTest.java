@@ -0,0 +1,108 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class ElasticThreadPoolExecutorTest {
+	
+	private final CountDownLatch gate = new CountDownLatch(1);
+	
+	private final ElasticThreadPoolExecutor executor = new ElasticThreadPoolExecutor(
+			1, 3, 1, TimeUnit.MINUTES, Executors.defaultThreadFactory());
+	
+	@After
+	public void tearDown() {
+		gate.countDown();
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void growsBeforeQueueing() throws Exception {
+		CountDownLatch started = new CountDownLatch(3);
+		for(int i = 0; i < 5; i++) {
+			executor.execute(blocking(started));
+		}
+		
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(3, executor.getPoolSize());
+		assertEquals(2, executor.getQueue().size());
+	}
+	
+	@Test
+	public void reusesIdleThreads() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute(countDown(done));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		awaitIdle(1);
+		
+		// The idle thread takes every task in turn
+		for(int i = 0; i < 10; i++) {
+			CountDownLatch next = new CountDownLatch(1);
+			executor.execute(countDown(next));
+			assertTrue(next.await(5, TimeUnit.SECONDS));
+			awaitIdle(1);
+		}
+		assertEquals(1, executor.getPoolSize());
+	}
+	
+	@Test
+	public void countsThreadThatHasTakenATaskAsBusy() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		executor.execute(blocking(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		// The only thread is busy, so the next task gets a thread of its own
+		CountDownLatch second = new CountDownLatch(1);
+		executor.execute(blocking(second));
+		assertTrue(second.await(5, TimeUnit.SECONDS));
+		assertEquals(2, executor.getPoolSize());
+	}
+	
+	/**
+	 * Waits until the given number of threads waits for tasks.
+	 */
+	private void awaitIdle(int threads) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(executor.getIdleCount() < threads) {
+			assertTrue("No idle thread", System.nanoTime() - deadline < 0);
+			Thread.yield();
+		}
+	}
+	
+	private Runnable blocking(final CountDownLatch started) {
+		return new Runnable() {
+			
+			public void run() {
+				started.countDown();
+				try {
+					gate.await();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+		};
+	}
+	
+	private static Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			
+			public void run() {
+				latch.countDown();
+			}
+			
+		};
+	}
+
+}
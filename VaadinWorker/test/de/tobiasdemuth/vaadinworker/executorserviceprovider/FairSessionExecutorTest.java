@@ -0,0 +1,361 @@
+package de.tobiasdemuth.vaadinworker.executorserviceprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.Application;
+
+import de.tobiasdemuth.vaadinworker.Priority;
+import de.tobiasdemuth.vaadinworker.Ticker;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+import de.tobiasdemuth.vaadinworker.WorkerTask;
+
+/**
+ * Runs the tasks on a single thread, so the order they are handed to the 
+ * delegate is the order they run in. The aging is driven by a 
+ * <code>ManualTicker</code>, so waiting is simulated instead of slept.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class FairSessionExecutorTest {
+	
+	private static final long NO_AGING = TimeUnit.HOURS.toMillis(1);
+	
+	private static final class Task implements WorkerTask {
+		
+		private final String name;
+		
+		private final VaadinWorker worker;
+		
+		private final Priority priority;
+		
+		private final List<String> log;
+		
+		private final CountDownLatch gate;
+		
+		private Task(String name, Application app, Priority priority, 
+				List<String> log, CountDownLatch gate) {
+			this.name = name;
+			this.priority = priority;
+			this.log = log;
+			this.gate = gate;
+			this.worker = new VaadinWorker(app) {
+				
+				@Override
+				public void runInBackground() {
+					// Never run
+				}
+				
+				@Override
+				public void updateUI() {
+					// Never run
+				}
+				
+			};
+		}
+		
+		public void run() {
+			try {
+				gate.await();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			log.add(name);
+		}
+		
+		public VaadinWorker getWorker() {
+			return worker;
+		}
+		
+		public Priority getPriority() {
+			return priority;
+		}
+		
+		public void discard() {
+			log.add(name + " discarded");
+		}
+		
+		public boolean isResubmitted() {
+			return false;
+		}
+		
+	}
+	
+	private final Application appA = new TestApplication();
+	
+	private final Application appB = new TestApplication();
+	
+	private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+	
+	private final CountDownLatch gate = new CountDownLatch(1);
+	
+	private final ManualTicker ticker = new ManualTicker();
+	
+	private ExecutorService delegate;
+	
+	@Before
+	public void setUp() {
+		delegate = Executors.newSingleThreadExecutor();
+	}
+	
+	@After
+	public void tearDown() {
+		gate.countDown();
+		delegate.shutdownNow();
+	}
+	
+	@Test
+	public void servesApplicationsRoundRobin() throws Exception {
+		FairSessionExecutor executor = createExecutor(NO_AGING);
+		
+		// A1 takes the only thread until the gate opens
+		executor.execute(task("A1", appA, Priority.NORMAL));
+		executor.execute(task("A2", appA, Priority.NORMAL));
+		executor.execute(task("A3", appA, Priority.NORMAL));
+		executor.execute(task("A4", appA, Priority.NORMAL));
+		executor.execute(task("B1", appB, Priority.NORMAL));
+		executor.execute(task("B2", appB, Priority.NORMAL));
+		
+		assertEquals(Arrays.asList("A1", "A2", "B1", "A3", "B2", "A4"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void limitsRunningTasksPerApplication() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			FairSessionExecutor executor = new FairSessionExecutor(pool, 2, 1, 0, 
+					RejectionPolicy.ABORT, NO_AGING);
+			executor.execute(task("A1", appA, Priority.NORMAL));
+			executor.execute(task("A2", appA, Priority.NORMAL));
+			
+			// The second thread is free, but A may only run one task at once
+			assertEquals(1, executor.getQueuedTaskCount());
+			gate.countDown();
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("A1", "A2"), log);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void runsHigherPrioritiesFirst() throws Exception {
+		FairSessionExecutor executor = createExecutor(NO_AGING);
+		
+		executor.execute(task("blocker", appA, Priority.NORMAL));
+		executor.execute(task("bulk", appA, Priority.BULK));
+		executor.execute(task("normal", appB, Priority.NORMAL));
+		executor.execute(task("interactive", appA, Priority.INTERACTIVE));
+		
+		assertEquals(Arrays.asList("blocker", "interactive", "normal", "bulk"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void agesWaitingTasksIntoHigherPriorities() throws Exception {
+		FairSessionExecutor executor = createExecutor(50);
+		
+		executor.execute(task("blocker", appA, Priority.NORMAL));
+		executor.execute(task("normal", appA, Priority.NORMAL));
+		ticker.advance(2 * 50);
+		executor.execute(task("interactive", appB, Priority.INTERACTIVE));
+		
+		// Aged into INTERACTIVE and waiting longer
+		assertEquals(Arrays.asList("blocker", "normal", "interactive"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void keepsBulkTasksBehindUntilTheirPatienceIsUsedUp() throws Exception {
+		FairSessionExecutor executor = createExecutor(50);
+		
+		executor.execute(task("blocker", appA, Priority.NORMAL));
+		executor.execute(task("bulk", appA, Priority.BULK));
+		ticker.advance(FairSessionExecutor.SCAVENGER_PATIENCE * 50);
+		executor.execute(task("normal", appB, Priority.NORMAL));
+		
+		assertEquals(Arrays.asList("blocker", "normal", "bulk"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void agesBulkTasksAfterTheirPatience() throws Exception {
+		FairSessionExecutor executor = createExecutor(10);
+		
+		executor.execute(task("blocker", appA, Priority.NORMAL));
+		executor.execute(task("bulk", appA, Priority.BULK));
+		ticker.advance((FairSessionExecutor.SCAVENGER_PATIENCE + 2) * 10);
+		executor.execute(task("normal", appB, Priority.NORMAL));
+		
+		assertEquals(Arrays.asList("blocker", "bulk", "normal"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void dropsOldestTaskOfTheSameApplication() throws Exception {
+		FairSessionExecutor executor = new FairSessionExecutor(delegate, 1, 0, 2, 
+				RejectionPolicy.DROP_OLDEST_PER_SESSION, NO_AGING);
+		
+		executor.execute(task("A1", appA, Priority.NORMAL));
+		executor.execute(task("A2", appA, Priority.NORMAL));
+		executor.execute(task("B1", appB, Priority.NORMAL));
+		executor.execute(task("A3", appA, Priority.NORMAL));
+		
+		assertEquals(Arrays.asList("A2 discarded", "A1", "B1", "A3"), 
+				runAll(executor));
+	}
+	
+	@Test
+	public void dropsTheLeastImportantTaskButNeverAMoreImportantOne() throws Exception {
+		FairSessionExecutor executor = new FairSessionExecutor(delegate, 1, 0, 2, 
+				RejectionPolicy.DROP_OLDEST_PER_SESSION, NO_AGING);
+		
+		executor.execute(task("blocker", appA, Priority.NORMAL));
+		executor.execute(task("interactive", appA, Priority.INTERACTIVE));
+		executor.execute(task("bulk", appA, Priority.BULK));
+		executor.execute(task("normal", appA, Priority.NORMAL));
+		try {
+			executor.execute(task("late bulk", appA, Priority.BULK));
+			fail("Dropped a more important task");
+		}
+		catch(RejectedExecutionException expected) {
+			// Only NORMAL- and INTERACTIVE-tasks are queued
+		}
+		
+		assertEquals(Arrays.asList("bulk discarded", "blocker", "interactive", 
+				"normal"), runAll(executor));
+	}
+	
+	@Test
+	public void discardsTasksRejectedByTheDelegate() throws Exception {
+		FairSessionExecutor executor = createExecutor(NO_AGING);
+		delegate.shutdown();
+		
+		executor.execute(task("A1", appA, Priority.NORMAL));
+		executor.execute(task("A2", appA, Priority.NORMAL));
+		
+		// The slot of the rejected task has been freed for the next one
+		assertEquals(0, executor.getQueuedTaskCount());
+		assertEquals(Arrays.asList("A1 discarded", "A2 discarded"), log);
+	}
+	
+	@Test
+	public void awaitsTerminationWithoutOverflowing() throws Exception {
+		FairSessionExecutor executor = createExecutor(NO_AGING);
+		executor.execute(task("A1", appA, Priority.NORMAL));
+		gate.countDown();
+		executor.shutdown();
+		
+		assertTrue(executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+		assertEquals(Arrays.asList("A1"), log);
+	}
+	
+	@Test
+	public void wakesUpWaitersOnShutdown() throws Exception {
+		final FairSessionExecutor executor = createExecutor(NO_AGING);
+		final CountDownLatch waiting = new CountDownLatch(1);
+		final boolean[] terminated = new boolean[1];
+		Thread waiter = new Thread(new Runnable() {
+			
+			public void run() {
+				waiting.countDown();
+				try {
+					terminated[0] = executor.awaitTermination(1, TimeUnit.MINUTES);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+		});
+		waiter.start();
+		waiting.await();
+		awaitBlocked(waiter);
+		
+		executor.shutdown();
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertTrue(terminated[0]);
+	}
+	
+	private FairSessionExecutor createExecutor(long agingInterval) {
+		return new FairSessionExecutor(delegate, 1, 0, 0, 
+				RejectionPolicy.ABORT, agingInterval, ticker);
+	}
+	
+	private Task task(String name, Application app, Priority priority) {
+		return new Task(name, app, priority, log, gate);
+	}
+	
+	/**
+	 * Opens the gate and waits for all tasks to be run.
+	 */
+	private List<String> runAll(FairSessionExecutor executor) throws Exception {
+		gate.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		return log;
+	}
+	
+	/**
+	 * Waits until the given thread waits, so it has actually entered the 
+	 * method under test.
+	 */
+	private static void awaitBlocked(Thread thread) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(thread.getState() != Thread.State.TIMED_WAITING) {
+			assertTrue(System.nanoTime() - deadline < 0);
+			Thread.sleep(1);
+		}
+	}
+	
+	/**
+	 * A <code>Ticker</code> whose time only passes when told to.
+	 */
+	private static final class ManualTicker implements Ticker {
+		
+		private final AtomicLong nanos = new AtomicLong();
+		
+		public long read() {
+			return nanos.get();
+		}
+		
+		private void advance(long millis) {
+			nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+		
+	}
+	
+	private static final class TestApplication extends Application {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void init() {
+			// Nothing to show
+		}
+		
+	}
+
+}
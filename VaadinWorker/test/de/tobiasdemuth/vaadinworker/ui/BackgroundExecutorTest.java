@@ -0,0 +1,225 @@
+package de.tobiasdemuth.vaadinworker.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.Application;
+import com.vaadin.service.ApplicationContext;
+import com.vaadin.terminal.ApplicationResource;
+import com.vaadin.ui.Window;
+
+import de.tobiasdemuth.vaadinworker.ExecutorServiceProvider;
+import de.tobiasdemuth.vaadinworker.VaadinWorker;
+
+/**
+ * Runs the workers on a pool with a single thread, which is kept busy so 
+ * submitted workers stay queued. Requests are simulated by informing the
+ * <code>TransactionListener</code>s of the context.
+ *
+ * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
+ */
+public class BackgroundExecutorTest {
+	
+	private final TestContext context = new TestContext();
+	
+	private final Application app = new TestApplication();
+	
+	private final CountDownLatch gate = new CountDownLatch(1);
+	
+	private final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 
+			0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	
+	private BackgroundExecutor executor;
+	
+	@Before
+	public void setUp() throws Exception {
+		app.start(new URL("http://localhost/"), new Properties(), context);
+		executor = new BackgroundExecutor(new TestProvider(pool));
+		app.getMainWindow().addComponent(executor);
+		
+		// Takes the only thread until the gate opens
+		pool.execute(new Runnable() {
+			
+			public void run() {
+				try {
+					gate.await();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		gate.countDown();
+		pool.shutdownNow();
+		app.close();
+	}
+	
+	@Test
+	public void failsSubscribersOfWorkerCanceledWhileQueued() {
+		TestWorker worker = new TestWorker(app);
+		Recorder progress = new Recorder();
+		Recorder results = new Recorder();
+		worker.getProgressPublisher().subscribe(progress);
+		worker.<Object>getResultPublisher().subscribe(results);
+		
+		executor.submit(worker);
+		worker.cancel();
+		assertTrue(pool.getQueue().isEmpty());
+		request();
+		
+		assertTrue(worker.isFinished());
+		assertFalse(worker.isStarted());
+		assertFalse(worker.updated);
+		assertTrue(progress.failure instanceof CancellationException);
+		assertTrue(results.failure instanceof CancellationException);
+		assertEquals(0, progress.completions);
+	}
+	
+	/**
+	 * Lets the context inform its listeners just as a request of the 
+	 * <code>Application</code> does.
+	 */
+	private void request() {
+		for(ApplicationContext.TransactionListener listener : context.listeners) {
+			listener.transactionStart(app, null);
+		}
+		for(ApplicationContext.TransactionListener listener : context.listeners) {
+			listener.transactionEnd(app, null);
+		}
+	}
+	
+	private static final class TestWorker extends VaadinWorker {
+		
+		private volatile boolean updated = false;
+		
+		private TestWorker(Application app) {
+			super(app);
+		}
+		
+		@Override
+		public void runInBackground() {
+			// Nothing to do
+		}
+		
+		@Override
+		public void updateUI() {
+			updated = true;
+		}
+		
+	}
+	
+	private static final class Recorder implements Flow.Subscriber<Object> {
+		
+		private volatile Throwable failure;
+		
+		private volatile int completions = 0;
+		
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+		
+		public void onNext(Object item) {
+			// Only the terminal signal matters
+		}
+		
+		public void onError(Throwable throwable) {
+			failure = throwable;
+		}
+		
+		public void onComplete() {
+			completions++;
+		}
+		
+	}
+	
+	private static final class TestProvider implements ExecutorServiceProvider {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final transient ExecutorService executor;
+		
+		private TestProvider(ExecutorService executor) {
+			this.executor = executor;
+		}
+		
+		public ExecutorService getExecutorService(Application application) {
+			return executor;
+		}
+		
+	}
+	
+	private static final class TestApplication extends Application {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void init() {
+			setMainWindow(new Window());
+		}
+		
+	}
+	
+	private static final class TestContext implements ApplicationContext {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<TransactionListener> listeners = 
+				new CopyOnWriteArrayList<TransactionListener>();
+		
+		public void addTransactionListener(TransactionListener listener) {
+			listeners.add(listener);
+		}
+		
+		public void removeTransactionListener(TransactionListener listener) {
+			listeners.remove(listener);
+		}
+		
+		public File getBaseDirectory() {
+			return null;
+		}
+		
+		public Collection<Application> getApplications() {
+			return Collections.emptyList();
+		}
+		
+		public String generateApplicationResourceURL(ApplicationResource resource, 
+				String urlKey) {
+			return null;
+		}
+		
+		public boolean isApplicationResourceURL(URL context, String relativeUri) {
+			return false;
+		}
+		
+		public String getURLKey(URL context, String relativeUri) {
+			return null;
+		}
+		
+	}
+
+}
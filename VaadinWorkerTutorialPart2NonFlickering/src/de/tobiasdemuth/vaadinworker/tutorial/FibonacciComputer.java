@@ -4,8 +4,9 @@ import static de.tobiasdemuth.vaadinworker.tutorial.VaadinWorkerTutorialApplicat
 import static de.tobiasdemuth.vaadinworker.tutorial.VaadinWorkerTutorialApplication.DATA;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.vaadin.data.Container;
 import com.vaadin.data.util.IndexedContainer;
@@ -18,8 +19,9 @@ import de.tobiasdemuth.vaadinworker.VaadinWorker.ProgressListener;
 /**
  * This revised version of the Fibonacci-Computer is able to do in-between-updates of the
  * view, giving a more responsive feeling for the client. In order to solve the problem
- * with the flickering table, we update the table only every 100 items (approximately 
- * once every second).
+ * with the flickering table, we update the table only every 100 items (approximately
+ * once every second). The computed numbers are handed over to the UI by a concurrent
+ * queue, as they are produced and consumed by different threads.
  *
  * @author Tobias Demuth &lt;mailto:myself@tobias-demuth.de&gt;
  */
@@ -32,17 +34,21 @@ public class FibonacciComputer extends VaadinWorker implements ProgressListener
 	private BigInteger secondToLast = BigInteger.ONE;
 	private BigInteger last = BigInteger.ONE;
 	
-	// Keep the computed last 100 numbers in memory
-	private int counter;
-	private final List<BigInteger> current;
+	// The computed numbers not yet shown, written by the background-thread and
+	// read by the UI
+	private final Queue<BigInteger> current = new ConcurrentLinkedQueue<BigInteger>();
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	// How many numbers are already shown - only used with the lock held
+	private int processed = 0;
 	
 	// the table's datasource
 	private Container container;
 	
 	// flag to control, if we already have done any initialization work on the UI
 	private boolean initialized = false;
-
-	public FibonacciComputer(final VaadinWorkerTutorialApplication application, 
+	
+	public FibonacciComputer(final VaadinWorkerTutorialApplication application,
 			final int numberCount) {
 		super(application);
 		// For in-between-updates you need a ProgressListener that gets informed
@@ -50,27 +56,19 @@ public class FibonacciComputer extends VaadinWorker implements ProgressListener
 		addListener(this);
 		
 		this.numberCount = numberCount;
-		this.current = new ArrayList<BigInteger>();
 	}
-
+	
 	@Override
 	public void runInBackground() {
 		// First two numbers don't have to be computed, they are simple "1"
-		counter = 0;
-		current.add(BigInteger.ONE);
-		// Now ProgressListener#workProgressed() will get called, which does
-		// the actual in-between update of the UI
-		updateProgress((int) (((double) counter / numberCount) * 100), "Computing ...");
-		
-		counter = 1;
-		current.add(BigInteger.ONE);
-		updateProgress((int) (((double) counter / numberCount) * 100), "Computing ...");
+		enqueue(BigInteger.ONE, 0);
+		enqueue(BigInteger.ONE, 1);
 		
-		for(counter = 2; counter < numberCount; counter++) {
+		for(int counter = 2; counter < numberCount && !isCanceled(); counter++) {
 			BigInteger currentNumber = secondToLast.add(last);
-			current.add(currentNumber);
-			// Do the update for every computed number
-			updateProgress((int) (((double) counter / numberCount) * 100), "Computing ...");
+			// Now ProgressListener#workProgressed() will get called, which does
+			// the actual in-between update of the UI
+			enqueue(currentNumber, counter);
 			
 			secondToLast = last;
 			last = currentNumber;
@@ -79,14 +77,22 @@ public class FibonacciComputer extends VaadinWorker implements ProgressListener
 				// Do a short nap to make it more thrilling ;)
 				Thread.sleep(10);
 			} catch (InterruptedException e) {
-				// Ignore
+				// Stop computing, but keep the interrupt for the caller
+				Thread.currentThread().interrupt();
+				break;
 			}
 		}
 	}
 	
+	private void enqueue(BigInteger number, int counter) {
+		current.add(number);
+		pending.incrementAndGet();
+		updateProgress((int) (((double) counter / numberCount) * 100), "Computing ...");
+	}
+	
 	public void workProgressed(int progress, String state, VaadinWorker worker) {
 		// If called the very first time, we need to do some initialization-work.
-		// We could also do the disabling of the form-controls here, but I wanted 
+		// We could also do the disabling of the form-controls here, but I wanted
 		// to keep the Application unchanged.
 		if(!initialized) {
 			this.container = new IndexedContainer();
@@ -102,15 +108,17 @@ public class FibonacciComputer extends VaadinWorker implements ProgressListener
 		}
 		
 		// If at least 100 new numbers have computed, add them to the view
-		if(current.size() >= 100) {
+		if(pending.get() >= 100) {
 			addCurrentNumbersToContainer();
 		}
 	}
-
+	
 	@Override
 	public void updateUI() {
 		// Add the rest of the numbers to the container
-		addCurrentNumbersToContainer();
+		if(initialized) {
+			addCurrentNumbersToContainer();
+		}
 		
 		// Reenable the disabled form-controls and display the notification
 		VaadinWorkerTutorialApplication app = (VaadinWorkerTutorialApplication) getApplication();
@@ -125,16 +133,15 @@ public class FibonacciComputer extends VaadinWorker implements ProgressListener
 	}
 	
 	private void addCurrentNumbersToContainer() {
-		System.out.println("addCurrentNumbersToContainer");
-		int i = 1;
-		for(BigInteger number : current) {
+		BigInteger number;
+		while((number = current.poll()) != null) {
+			pending.decrementAndGet();
+			processed++;
+			
 			Object itemId = container.addItem();
-			container.getItem(itemId).getItemProperty(COUNTER).setValue(counter - current.size() + i + 1);
+			container.getItem(itemId).getItemProperty(COUNTER).setValue(processed);
 			container.getItem(itemId).getItemProperty(DATA).setValue(number);
-			i++;
 		}
-		
-		current.clear();
 	}
 
 }